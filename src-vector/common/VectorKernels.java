@@ -0,0 +1,102 @@
+package common;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD loops on the widest double vectors of the platform.
+ * Kept in the optional src-vector source root because it needs
+ * --add-modules jdk.incubator.vector both to compile and to run,
+ * MatrixOperations falls back to ScalarKernels when it is not compiled or cannot be loaded.
+ * The dot product sums lane by lane, so it can differ from the scalar one
+ * in the last bits.
+ */
+class VectorKernels implements Kernels {
+	
+	private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+	
+	public double dotProduct(double[] vector1, double[] vector2) {
+		return this.dotProduct(vector1, vector2, 0, vector1.length);
+	}
+	
+	public double dotProduct(double[] vector1, double[] vector2, int from, int to) {
+		DoubleVector sum = DoubleVector.zero(VectorKernels.species);
+		int bound = from + VectorKernels.species.loopBound(to - from);
+		int i = from;
+		for (; i < bound; i += VectorKernels.species.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(VectorKernels.species, vector1, i);
+			DoubleVector v2 = DoubleVector.fromArray(VectorKernels.species, vector2, i);
+			sum = v1.fma(v2, sum);
+		}
+		double result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < to; ++i) {
+			result += vector1[i] * vector2[i];
+		}
+		return result;
+	}
+	
+	public void addScaledInline(double[] vector1, double number, double[] vector2, int from, int to) {
+		DoubleVector scale = DoubleVector.broadcast(VectorKernels.species, number);
+		int bound = from + VectorKernels.species.loopBound(to - from);
+		int i = from;
+		for (; i < bound; i += VectorKernels.species.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(VectorKernels.species, vector1, i);
+			DoubleVector v2 = DoubleVector.fromArray(VectorKernels.species, vector2, i);
+			v2.fma(scale, v1).intoArray(vector1, i);
+		}
+		for (; i < to; ++i) {
+			vector1[i] += number * vector2[i];
+		}
+	}
+	
+	public void addInline(double[] vector1, double[] vector2) {
+		int bound = VectorKernels.species.loopBound(vector1.length);
+		int i = 0;
+		for (; i < bound; i += VectorKernels.species.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(VectorKernels.species, vector1, i);
+			DoubleVector v2 = DoubleVector.fromArray(VectorKernels.species, vector2, i);
+			v1.add(v2).intoArray(vector1, i);
+		}
+		for (; i < vector1.length; ++i) {
+			vector1[i] += vector2[i];
+		}
+	}
+	
+	public void subtractInline(double[] vector1, double[] vector2) {
+		int bound = VectorKernels.species.loopBound(vector1.length);
+		int i = 0;
+		for (; i < bound; i += VectorKernels.species.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(VectorKernels.species, vector1, i);
+			DoubleVector v2 = DoubleVector.fromArray(VectorKernels.species, vector2, i);
+			v1.sub(v2).intoArray(vector1, i);
+		}
+		for (; i < vector1.length; ++i) {
+			vector1[i] -= vector2[i];
+		}
+	}
+	
+	public void multiply(double[] vector, double number, double[] result) {
+		int bound = VectorKernels.species.loopBound(vector.length);
+		int i = 0;
+		for (; i < bound; i += VectorKernels.species.length()) {
+			DoubleVector.fromArray(VectorKernels.species, vector, i).mul(number).intoArray(result, i);
+		}
+		for (; i < vector.length; ++i) {
+			result[i] = vector[i] * number;
+		}
+	}
+	
+	public void multiplyComponentWise(double[] vector1, double[] vector2, double[] result) {
+		int bound = VectorKernels.species.loopBound(vector1.length);
+		int i = 0;
+		for (; i < bound; i += VectorKernels.species.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(VectorKernels.species, vector1, i);
+			DoubleVector v2 = DoubleVector.fromArray(VectorKernels.species, vector2, i);
+			v1.mul(v2).intoArray(result, i);
+		}
+		for (; i < vector1.length; ++i) {
+			result[i] = vector1[i] * vector2[i];
+		}
+	}
+}
@@ -0,0 +1,168 @@
+import java.util.Arrays;
+
+import common.MatrixOperations;
+
+/**
+ * Common part of the single precision copies of a trained NeuralNetwork:
+ * the float embeddings and biases, the embedding gathering and the forward
+ * pass loops. Subclasses store the weight matrices in their own format and
+ * only provide the products of one weight row with the layer inputs.
+ * The embeddings are stored one row per vocabulary entry, so gathering the
+ * embedding of an input is a single contiguous copy.
+ * Immutable after construction, so one instance can be shared by all parsing threads.
+ */
+public abstract class AbstractFloatNetwork implements TransitionClassifier {
+
+	protected final int wordInputsCount;
+	protected final int tagInputsCount;
+	protected final int labelInputsCount;
+	protected final int embeddingSize;
+	protected final int hiddensCount;
+	protected final int transitionsCount;
+
+	/**
+	 * [vocabularySize * embeddingSize], row i holds the embedding of id i+1
+	 */
+	private final float[] wordEmbeddings;
+	private final float[] tagEmbeddings;
+	private final float[] labelEmbeddings;
+
+	private final float[] biases;
+
+	protected AbstractFloatNetwork(NeuralNetwork network) {
+		this.wordInputsCount = network.getWordInputsCount();
+		this.tagInputsCount = network.getTagInputsCount();
+		this.labelInputsCount = network.getLabelInputsCount();
+		this.embeddingSize = network.getEmbeddingSize();
+		this.hiddensCount = network.getBiases().length;
+		this.transitionsCount = network.getWeights("softmax").length;
+
+		this.wordEmbeddings = AbstractFloatNetwork.flatten(network.getEmbeddings("words"));
+		this.tagEmbeddings = AbstractFloatNetwork.flatten(network.getEmbeddings("tags"));
+		this.labelEmbeddings = AbstractFloatNetwork.flatten(network.getEmbeddings("labels"));
+
+		this.biases = new float[this.hiddensCount];
+		for (int i = 0; i < this.biases.length; ++i) {
+			this.biases[i] = (float) network.getBiases()[i];
+		}
+	}
+
+	/**
+	 * @return activation plus the products of row hidden of the word, tag and label weights
+	 * with the matching embeddings vectors, added in that order. The blocks of null (0)
+	 * inputs are skipped, their part of the embeddings vectors is never read.
+	 */
+	protected abstract float addHiddenProducts(int hidden, float activation,
+			int[] wordInputs, float[] inputWordEmbeddings, int[] tagInputs, float[] inputTagEmbeddings,
+			int[] labelInputs, float[] inputLabelEmbeddings);
+
+	/**
+	 * @return Product of row transition of the softmax weights with the hidden activations
+	 */
+	protected abstract float multiplyOutput(int transition, float[] hiddenActivations);
+
+	public int chooseTransition(NetworkWorkspace workspace, int best) {
+		return MatrixOperations.argmax(this.computeOutputs(workspace), best,
+				workspace.getBestOutputs(), workspace.getBestTransitions());
+	}
+
+	public double[][] computeOutputs(BatchWorkspace workspace, int count) {
+		for (int i = 0; i < count; ++i) {
+			this.fillEmbeddingsVector(this.wordEmbeddings, workspace.getWordInputs()[i], workspace.getFloatWordEmbeddingsVectors()[i]);
+			this.fillEmbeddingsVector(this.tagEmbeddings, workspace.getTagInputs()[i], workspace.getFloatTagEmbeddingsVectors()[i]);
+			this.fillEmbeddingsVector(this.labelEmbeddings, workspace.getLabelInputs()[i], workspace.getFloatLabelEmbeddingsVectors()[i]);
+		}
+
+		this.computeHiddenActivations(workspace, count);
+
+		this.computeOutputs(workspace.getFloatHiddenActivations(), count, workspace.getOutputs());
+		return workspace.getOutputs();
+	}
+
+	public double[] computeOutputs(NetworkWorkspace workspace) {
+		this.fillEmbeddingsVector(this.wordEmbeddings, workspace.getWordInputs(), workspace.getFloatWordEmbeddingsVector());
+		this.fillEmbeddingsVector(this.tagEmbeddings, workspace.getTagInputs(), workspace.getFloatTagEmbeddingsVector());
+		this.fillEmbeddingsVector(this.labelEmbeddings, workspace.getLabelInputs(), workspace.getFloatLabelEmbeddingsVector());
+
+		this.computeHiddenActivations(workspace);
+
+		this.computeOutputs(workspace.getFloatHiddenActivations(), workspace.getOutputs());
+		return workspace.getOutputs();
+	}
+
+	public NetworkWorkspace createWorkspace() {
+		return new NetworkWorkspace(this.wordInputsCount, this.tagInputsCount, this.labelInputsCount,
+				this.embeddingSize, this.hiddensCount, this.transitionsCount);
+	}
+
+	public BatchWorkspace createBatchWorkspace(int batchSize) {
+		return new BatchWorkspace(batchSize, this.wordInputsCount, this.tagInputsCount, this.labelInputsCount,
+				this.embeddingSize, this.hiddensCount, this.transitionsCount);
+	}
+
+	private void fillEmbeddingsVector(float[] embeddings, int[] inputs, float[] inputEmbeddingsVector) {
+		for (int input = 0; input < inputs.length; ++input) {
+			if (0 == inputs[input]) {
+				Arrays.fill(inputEmbeddingsVector, input*this.embeddingSize, (input+1)*this.embeddingSize, 0);
+			} else {
+				System.arraycopy(embeddings, (inputs[input]-1)*this.embeddingSize,
+								 inputEmbeddingsVector, input*this.embeddingSize, this.embeddingSize);
+			}
+		}
+	}
+
+	private void computeHiddenActivations(NetworkWorkspace workspace) {
+		float[] activations = workspace.getFloatHiddenActivations();
+		for (int hidden = 0; hidden < this.hiddensCount; ++hidden) {
+			float activation = this.addHiddenProducts(hidden, this.biases[hidden],
+					workspace.getWordInputs(), workspace.getFloatWordEmbeddingsVector(),
+					workspace.getTagInputs(), workspace.getFloatTagEmbeddingsVector(),
+					workspace.getLabelInputs(), workspace.getFloatLabelEmbeddingsVector());
+			activations[hidden] = activation * activation * activation;
+		}
+	}
+
+	private void computeOutputs(float[] inputs, double[] outputs) {
+		for (int transition = 0; transition < this.transitionsCount; ++transition) {
+			outputs[transition] = this.multiplyOutput(transition, inputs);
+		}
+	}
+
+	/**
+	 * Batched version over the first count configurations - each weight row is used for every configuration before moving on
+	 */
+	private void computeHiddenActivations(BatchWorkspace workspace, int count) {
+		float[][] activations = workspace.getFloatHiddenActivations();
+		for (int hidden = 0; hidden < this.hiddensCount; ++hidden) {
+			for (int i = 0; i < count; ++i) {
+				float activation = this.addHiddenProducts(hidden, this.biases[hidden],
+						workspace.getWordInputs()[i], workspace.getFloatWordEmbeddingsVectors()[i],
+						workspace.getTagInputs()[i], workspace.getFloatTagEmbeddingsVectors()[i],
+						workspace.getLabelInputs()[i], workspace.getFloatLabelEmbeddingsVectors()[i]);
+				activations[i][hidden] = activation * activation * activation;
+			}
+		}
+	}
+
+	private void computeOutputs(float[][] inputs, int count, double[][] outputs) {
+		for (int transition = 0; transition < this.transitionsCount; ++transition) {
+			for (int i = 0; i < count; ++i) {
+				outputs[i][transition] = this.multiplyOutput(transition, inputs[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return Row-major single precision copy of matrix
+	 */
+	protected static float[] flatten(double[][] matrix) {
+		int cols = matrix[0].length;
+		float[] result = new float[matrix.length*cols];
+		for (int row = 0; row < matrix.length; ++row) {
+			for (int col = 0; col < cols; ++col) {
+				result[row*cols + col] = (float) matrix[row][col];
+			}
+		}
+		return result;
+	}
+}
@@ -1,17 +1,45 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 public class ArcStandard {
 //	private List<String> labels;
 	private static final String rootLabel = "root";
+	/**
+	 * transition names, only used for display
+	 */
 	private List<String> transitions;
 	
 	private static final String shift = "shift";
 	private static final String left = "left";
 	private static final String right = "right";
 	
-	public ArcStandard(List<String> labels) {
+	private static final int shiftTransitionId = 0;
+	
+	private static final int SHIFT = 0;
+	private static final int LEFT = 1;
+	private static final int RIGHT = 2;
+	
+	/**
+	 * type (SHIFT, LEFT or RIGHT) and DependencyTree label id of every transition id
+	 */
+	private final int[] transitionTypes;
+	private final int[] transitionLabels;
+	/**
+	 * transition ids by DependencyTree label id, -1 for labels without the transition
+	 */
+	private final int[] leftTransitionIds;
+	private final int[] rightTransitionIds;
+	private final int rightRootTransitionId;
+	
+	/**
+	 * vocabulary id of ROOT for the token added by initialConfiguration
+	 */
+	private final int rootWordId;
+	
+	public ArcStandard(List<String> labels, int rootWordId) {
+		this.rootWordId = rootWordId;
 //		this.labels = labels;
 		this.transitions = new ArrayList<String>(2*labels.size() + 1);
 		this.transitions.add(ArcStandard.shift);
@@ -21,22 +49,50 @@ public class ArcStandard {
 			}
 			this.transitions.add(right + label);
 		}
+		
+		int maxLabelId = DependencyTree.getLabelId(ArcStandard.rootLabel);
+		for (String label : labels) {
+			maxLabelId = Math.max(maxLabelId, DependencyTree.getLabelId(label));
+		}
+		this.transitionTypes = new int[this.transitions.size()];
+		this.transitionLabels = new int[this.transitions.size()];
+		this.leftTransitionIds = new int[maxLabelId + 1];
+		this.rightTransitionIds = new int[maxLabelId + 1];
+		Arrays.fill(this.leftTransitionIds, -1);
+		Arrays.fill(this.rightTransitionIds, -1);
+		this.transitionTypes[ArcStandard.shiftTransitionId] = ArcStandard.SHIFT;
+		int transitionId = ArcStandard.shiftTransitionId + 1;
+		for (String label : labels) {
+			int labelId = DependencyTree.getLabelId(label);
+			if (!label.equals(ArcStandard.rootLabel)) {
+				this.transitionTypes[transitionId] = ArcStandard.LEFT;
+				this.transitionLabels[transitionId] = labelId;
+				this.leftTransitionIds[labelId] = transitionId++;
+			}
+			this.transitionTypes[transitionId] = ArcStandard.RIGHT;
+			this.transitionLabels[transitionId] = labelId;
+			this.rightTransitionIds[labelId] = transitionId++;
+		}
+		this.rightRootTransitionId = this.rightTransitionIds[DependencyTree.getLabelId(ArcStandard.rootLabel)];
 	}
+	
 	/**
 	 * Apply the given transition to the given configuration
 	 * @param c Configuration
-	 * @param t Transition
+	 * @param transitionId Transition id
 	 */
-	public void apply(Configuration c, String t) {
-		if (t.equals(ArcStandard.shift)) {
+	public void apply(Configuration c, int transitionId) {
+		int type = this.transitionTypes[transitionId];
+		if (ArcStandard.SHIFT == type) {
 			c.shift();
 			return;
 		}
 		//else
+		int labelId = this.transitionLabels[transitionId];
 		if (c.getStackSize() < 2) {
 			int dependent = c.getStack(0);
-			if (t.equals(ArcStandard.right + ArcStandard.rootLabel)) {
-				c.addArc(0, dependent, ArcStandard.rootLabel);
+			if (transitionId == this.rightRootTransitionId) {
+				c.addArc(0, dependent, labelId);
 			}
 			else {
 				System.err.println("Fuck!");
@@ -44,85 +100,110 @@ public class ArcStandard {
 			c.removeTopStack();
 			return;
 		}
-		int head = c.getStack(0);
-		int dependent = c.getStack(1);
-		String label;
-		boolean isLeft = t.startsWith(ArcStandard.left);
-		if (isLeft) {
-			label = t.substring(ArcStandard.left.length());
-		} else {
-			int temp = head;
-			head = dependent;
-			dependent = temp;
-			label = t.substring(ArcStandard.right.length());
-		}
-		c.addArc(head, dependent, label);
-		if (isLeft) {
+		int top = c.getStack(0);
+		int belowTop = c.getStack(1);
+		if (ArcStandard.LEFT == type) {
+			c.addArc(top, belowTop, labelId);
 			c.removeSecondTopStack();
 		} else {
+			c.addArc(belowTop, top, labelId);
 			c.removeTopStack();
 		}
 	}
 	
-	public boolean canApply(Configuration c, String t) {
+	public boolean canApply(Configuration c, int transitionId) {
 		//several special cases
 		//when buffer is empty and it predicted shift
-		//when ROOT will be head and the label is not leftroot
-		switch (t) {
-		case ArcStandard.shift:
+		//when there are less than two words on the stack to make an arc
+		//when ROOT will be head and the label is not root
+		//when ROOT will be a dependent
+		if (ArcStandard.SHIFT == this.transitionTypes[transitionId]) {
 			return 0 != c.getBufferSize();
-		case (ArcStandard.right + ArcStandard.rootLabel):
+		}
+		if (transitionId == this.rightRootTransitionId) {
 			return 0 == c.getStack(1);
 		}
+		if (c.getStackSize() < 2) {
+			return false;
+		}
+		if (0 == c.getStack(1)) {
+			return false;
+		}
 		return true;
 	}
 	
+	/**
+	 * Mark which transitions can be applied to the given configuration
+	 * @param c Configuration
+	 * @param legal Filled with one flag per transition id, ids without a transition are never legal
+	 * @return Number of legal transitions
+	 */
+	public int fillLegalTransitions(Configuration c, boolean[] legal) {
+		int count = 0;
+		for (int transitionId = 0; transitionId < legal.length; ++transitionId) {
+			legal[transitionId] = transitionId < this.transitionTypes.length
+								&& this.canApply(c, transitionId);
+			if (legal[transitionId]) {
+				++count;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return Id of the first legal transition or -1 if there is none
+	 */
+	public static int firstLegalTransition(boolean[] legal) {
+		for (int transitionId = 0; transitionId < legal.length; ++transitionId) {
+			if (legal[transitionId]) {
+				return transitionId;
+			}
+		}
+		return -1;
+	}
+	
 	/**
 	 * Recommend a transition
+	 * Constant time: the gold head, label and children count of the top two words are looked up directly
 	 * @param c	Current configuration
 	 * @param dTree Gold-Standard tree that needs to be reached
-	 * @return Transition string
+	 * @return Transition id or -1 if the configuration is terminal or no transition leads to dTree
+	 * (non-projective tree or a label without a transition)
 	 */
-	public String getOracle(Configuration c, DependencyTree dTree) {
+	public int getOracle(Configuration c, DependencyTree dTree) {
 		int stackSize = c.getStackSize();
 		int bufferSize = c.getBufferSize();
 		
 		if (stackSize < 2) {
 			//not enough for an arc
 			if (bufferSize > 0) {
-				return ArcStandard.shift;
+				return ArcStandard.shiftTransitionId;
 			}
 			//end of sentence just pop "ROOT".
 //			return this.right + this.rootLabel;
-			return null;
+			return -1;
 		}
 		//enough for an arc
 		int top = c.getStack(0);
 		int belowTop = c.getStack(1);
 		//Try left
-		Arc leftArc = new Arc(top, belowTop);
-		for (Arc arc : dTree) {
-			if (0 == leftArc.partialCompareTo(arc)) {
-				if (!c.hasOtherChild(leftArc.getDependentSentenceIndex(), dTree)) {
-					return ArcStandard.left + arc.getLabel();
-				}
-			}
+		if (top == dTree.getHead(belowTop) && !c.hasOtherChild(belowTop, dTree)) {
+			return ArcStandard.getTransitionId(this.leftTransitionIds, dTree.getLabelId(belowTop));
 		}
 		//Find right arc
-		Arc rightArc = new Arc(belowTop, top);
-		for (Arc arc : dTree) {
-			if (0 == rightArc.partialCompareTo(arc)) {
-				if (!c.hasOtherChild(rightArc.getDependentSentenceIndex(), dTree)) {
-					return ArcStandard.right + arc.getLabel();
-				}
-			}
+		if (belowTop == dTree.getHead(top) && !c.hasOtherChild(top, dTree)) {
+			return ArcStandard.getTransitionId(this.rightTransitionIds, dTree.getLabelId(top));
 		}
 		//If no arc - shift
 		if (bufferSize > 0) {
-			return ArcStandard.shift;
+			return ArcStandard.shiftTransitionId;
 		}
 
-		return "Ooops! Ooops;";
+		return -1;
+	}
+	
+	private static int getTransitionId(int[] transitionIds, int labelId) {
+		return (labelId < transitionIds.length) ? transitionIds[labelId] : -1;
 	}
 	
 	public int getTransitionId(String t) {
@@ -135,11 +216,16 @@ public class ArcStandard {
 	
 	public Configuration initialConfiguration(List<Token> sentence) {
 		List<Token> modifiedSentence = new LinkedList<Token>();
-		modifiedSentence.add(new Token(0, 1, "ROOT", "ROOT", "", -1, ""));
+		//ROOT has no POS tag nor label
+		modifiedSentence.add(new Token(0, this.rootWordId, 0, 0, DependencyTree.getLabelId(""), "ROOT", "ROOT", "", -1, ""));
 		modifiedSentence.addAll(sentence);
 		return new Configuration(modifiedSentence);
 	}
 	
+	public Configuration initialConfiguration(Corpus corpus, int sentence) {
+		return new Configuration(corpus, sentence, this.rootWordId);
+	}
+	
 	public boolean isTerminal(Configuration c) {
 		return c.getStackSize() == 1 && c.getBufferSize() == 0;
 	}
@@ -0,0 +1,118 @@
+
+/**
+ * Preallocated buffers for scoring up to batchSize configurations together,
+ * one row per configuration. A workspace is reused for every step of a batch
+ * parse, so it must not be shared between threads.
+ */
+public class BatchWorkspace {
+
+	private final int batchSize;
+
+	/**
+	 * feature ids filled in by the caller
+	 */
+	private int[][] wordInputs;
+	private int[][] tagInputs;
+	private int[][] labelInputs;
+
+	/**
+	 * buffers for the double precision network
+	 */
+	private double[][] wordEmbeddingsVectors;
+	private double[][] tagEmbeddingsVectors;
+	private double[][] labelEmbeddingsVectors;
+	private double[][] hiddenActivations;
+
+	/**
+	 * buffers for the single precision and quantized networks
+	 */
+	private float[][] floatWordEmbeddingsVectors;
+	private float[][] floatTagEmbeddingsVectors;
+	private float[][] floatLabelEmbeddingsVectors;
+	private float[][] floatHiddenActivations;
+
+	private double[][] outputs;
+
+	/**
+	 * which transitions are legal in each configuration of the batch
+	 */
+	private boolean[][] legalTransitions;
+
+	public BatchWorkspace(int batchSize, int wordInputsCount, int tagInputsCount, int labelInputsCount,
+			int embeddingSize, int hiddens, int transitionsCount) {
+		this.batchSize = batchSize;
+
+		this.wordInputs = new int[batchSize][wordInputsCount];
+		this.tagInputs = new int[batchSize][tagInputsCount];
+		this.labelInputs = new int[batchSize][labelInputsCount];
+
+		this.wordEmbeddingsVectors = new double[batchSize][wordInputsCount*embeddingSize];
+		this.tagEmbeddingsVectors = new double[batchSize][tagInputsCount*embeddingSize];
+		this.labelEmbeddingsVectors = new double[batchSize][labelInputsCount*embeddingSize];
+		this.hiddenActivations = new double[batchSize][hiddens];
+
+		this.floatWordEmbeddingsVectors = new float[batchSize][wordInputsCount*embeddingSize];
+		this.floatTagEmbeddingsVectors = new float[batchSize][tagInputsCount*embeddingSize];
+		this.floatLabelEmbeddingsVectors = new float[batchSize][labelInputsCount*embeddingSize];
+		this.floatHiddenActivations = new float[batchSize][hiddens];
+
+		this.outputs = new double[batchSize][transitionsCount];
+		this.legalTransitions = new boolean[batchSize][transitionsCount];
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public int[][] getWordInputs() {
+		return this.wordInputs;
+	}
+
+	public int[][] getTagInputs() {
+		return this.tagInputs;
+	}
+
+	public int[][] getLabelInputs() {
+		return this.labelInputs;
+	}
+
+	public double[][] getWordEmbeddingsVectors() {
+		return this.wordEmbeddingsVectors;
+	}
+
+	public double[][] getTagEmbeddingsVectors() {
+		return this.tagEmbeddingsVectors;
+	}
+
+	public double[][] getLabelEmbeddingsVectors() {
+		return this.labelEmbeddingsVectors;
+	}
+
+	public double[][] getHiddenActivations() {
+		return this.hiddenActivations;
+	}
+
+	public float[][] getFloatWordEmbeddingsVectors() {
+		return this.floatWordEmbeddingsVectors;
+	}
+
+	public float[][] getFloatTagEmbeddingsVectors() {
+		return this.floatTagEmbeddingsVectors;
+	}
+
+	public float[][] getFloatLabelEmbeddingsVectors() {
+		return this.floatLabelEmbeddingsVectors;
+	}
+
+	public float[][] getFloatHiddenActivations() {
+		return this.floatHiddenActivations;
+	}
+
+	public double[][] getOutputs() {
+		return this.outputs;
+	}
+
+	public boolean[][] getLegalTransitions() {
+		return this.legalTransitions;
+	}
+}
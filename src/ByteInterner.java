@@ -0,0 +1,131 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Assigns dense ids (0, 1, ...) to distinct byte sequences read straight from a
+ * buffer. The bytes of every distinct sequence are copied once into a pool and
+ * the String of a sequence is only decoded when it is asked for, so interning a
+ * repeated value allocates nothing.
+ * Not thread-safe.
+ */
+public class ByteInterner {
+
+	private byte[] pool;
+	private int poolSize;
+	private int[] starts;
+	private int[] lengths;
+	private int[] hashes;
+	private String[] strings;
+	private int count;
+
+	/**
+	 * open addressing, id + 1 of the sequence in each bucket, 0 for an empty one
+	 */
+	private int[] table;
+
+	public ByteInterner() {
+		this.pool = new byte[1 << 12];
+		this.poolSize = 0;
+		this.starts = new int[1 << 8];
+		this.lengths = new int[this.starts.length];
+		this.hashes = new int[this.starts.length];
+		this.strings = new String[this.starts.length];
+		this.count = 0;
+		this.table = new int[2*this.starts.length];
+	}
+
+	/**
+	 * @return Id of buffer[from..to), a new one if the sequence was not seen yet
+	 */
+	public int intern(ByteBuffer buffer, int from, int to) {
+		int hash = 1;
+		for (int i = from; i < to; ++i) {
+			hash = 31*hash + buffer.get(i);
+		}
+		int mask = this.table.length - 1;
+		int bucket = ByteInterner.spread(hash) & mask;
+		while (0 != this.table[bucket]) {
+			int id = this.table[bucket] - 1;
+			if (this.hashes[id] == hash && this.equals(id, buffer, from, to)) {
+				return id;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return this.add(buffer, from, to, hash, bucket);
+	}
+
+	/**
+	 * @return The sequence with the given id decoded as UTF-8, the same instance on every call
+	 */
+	public String getString(int id) {
+		if (null == this.strings[id]) {
+			this.strings[id] = new String(this.pool, this.starts[id], this.lengths[id], StandardCharsets.UTF_8);
+		}
+		return this.strings[id];
+	}
+
+	/**
+	 * @return Number of distinct sequences
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	private boolean equals(int id, ByteBuffer buffer, int from, int to) {
+		if (this.lengths[id] != to - from) {
+			return false;
+		}
+		int start = this.starts[id];
+		for (int i = from; i < to; ++i) {
+			if (this.pool[start + i - from] != buffer.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int add(ByteBuffer buffer, int from, int to, int hash, int bucket) {
+		int length = to - from;
+		if (this.poolSize + length > this.pool.length) {
+			this.pool = Arrays.copyOf(this.pool, Math.max(2*this.pool.length, this.poolSize + length));
+		}
+		for (int i = from; i < to; ++i) {
+			this.pool[this.poolSize + i - from] = buffer.get(i);
+		}
+		if (this.count == this.starts.length) {
+			int capacity = 2*this.starts.length;
+			this.starts = Arrays.copyOf(this.starts, capacity);
+			this.lengths = Arrays.copyOf(this.lengths, capacity);
+			this.hashes = Arrays.copyOf(this.hashes, capacity);
+			this.strings = Arrays.copyOf(this.strings, capacity);
+		}
+		int id = this.count++;
+		this.starts[id] = this.poolSize;
+		this.lengths[id] = length;
+		this.hashes[id] = hash;
+		this.poolSize += length;
+		this.table[bucket] = id + 1;
+		//keep the table at most half full
+		if (2*this.count > this.table.length) {
+			this.rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		this.table = new int[2*this.table.length];
+		int mask = this.table.length - 1;
+		for (int id = 0; id < this.count; ++id) {
+			int bucket = ByteInterner.spread(this.hashes[id]) & mask;
+			while (0 != this.table[bucket]) {
+				bucket = (bucket + 1) & mask;
+			}
+			this.table[bucket] = id + 1;
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,271 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a CoNLL-U file sentence by sentence straight from a memory mapped copy of
+ * its bytes. No line or field Strings are created: the sentence index and head
+ * columns are parsed as numbers and the form, lemma, POS tag (XPOS) and label
+ * columns are interned into ids, so only one String per distinct value is ever
+ * decoded. The other columns are skipped.
+ * Comment lines, multiword token lines (1-2) and empty nodes (1.1) are skipped.
+ * Files larger than a mapping window are mapped window by window.
+ * A reader can be limited to a byte range of the file that starts and ends at
+ * sentence boundaries, see ParallelCoNLLUReader.
+ * Not thread-safe.
+ */
+public class CoNLLUReader implements Closeable {
+
+	private static final long WINDOW = 1L << 30;
+
+	private static final int FORM = 1;
+	private static final int LEMMA = 2;
+	private static final int POS = 4;
+	private static final int HEAD = 6;
+	private static final int LABEL = 7;
+
+	private final FileChannel channel;
+	/**
+	 * file offset the reader stops at
+	 */
+	private final long end;
+	private MappedByteBuffer buffer;
+	private long bufferStart;
+	/**
+	 * position of the next unread byte in the buffer
+	 */
+	private int position;
+
+	private final ByteInterner forms;
+	private final ByteInterner lemmas;
+	private final ByteInterner tags;
+	private final ByteInterner labels;
+
+	/**
+	 * columns of the current sentence
+	 */
+	private int length;
+	private int[] sentenceIndices;
+	private int[] formIds;
+	private int[] lemmaIds;
+	private int[] tagIds;
+	private int[] labelIds;
+	private int[] heads;
+
+	/**
+	 * start and end of the fields of the current line
+	 */
+	private final int[] fieldStarts;
+	private final int[] fieldEnds;
+
+	public CoNLLUReader(Path file) throws IOException {
+		this(file, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Read the sentences of file[start..end), start has to be the beginning of a line
+	 * and end the end of the file or the end of a blank line
+	 */
+	public CoNLLUReader(Path file, long start, long end) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.end = Math.min(end, this.channel.size());
+		this.map(Math.min(start, this.end));
+		this.forms = new ByteInterner();
+		this.lemmas = new ByteInterner();
+		this.tags = new ByteInterner();
+		this.labels = new ByteInterner();
+		this.length = 0;
+		this.sentenceIndices = new int[64];
+		this.formIds = new int[64];
+		this.lemmaIds = new int[64];
+		this.tagIds = new int[64];
+		this.labelIds = new int[64];
+		this.heads = new int[64];
+		this.fieldStarts = new int[CoNLLUReader.LABEL + 1];
+		this.fieldEnds = new int[CoNLLUReader.LABEL + 1];
+	}
+
+	/**
+	 * @return Whether another sentence follows, skips empty and comment lines
+	 */
+	public boolean hasNextSentence() throws IOException {
+		while (this.bufferStart + this.position < this.end) {
+			int end = this.findLineEnd();
+			if (!this.isBlank(end) && '#' != this.buffer.get(this.position)) {
+				return true;
+			}
+			this.position = Math.min(end + 1, this.buffer.limit());
+		}
+		return false;
+	}
+
+	/**
+	 * Read the next sentence into the columns
+	 * @return False if there is no sentence left
+	 */
+	public boolean nextSentence() throws IOException {
+		this.length = 0;
+		if (!this.hasNextSentence()) {
+			return false;
+		}
+		while (this.bufferStart + this.position < this.end) {
+			int end = this.findLineEnd();
+			if (this.isBlank(end)) {
+				//an empty line ends the sentence
+				this.position = Math.min(end + 1, this.buffer.limit());
+				break;
+			}
+			if ('#' != this.buffer.get(this.position)) {
+				this.readToken(end);
+			}
+			this.position = Math.min(end + 1, this.buffer.limit());
+		}
+		return true;
+	}
+
+	/**
+	 * @return Number of tokens of the current sentence
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	public int getSentenceIndex(int token) {
+		return this.sentenceIndices[token];
+	}
+
+	public int getFormId(int token) {
+		return this.formIds[token];
+	}
+
+	public int getLemmaId(int token) {
+		return this.lemmaIds[token];
+	}
+
+	public int getTagId(int token) {
+		return this.tagIds[token];
+	}
+
+	public int getLabelId(int token) {
+		return this.labelIds[token];
+	}
+
+	public int getHead(int token) {
+		return this.heads[token];
+	}
+
+	public ByteInterner getForms() {
+		return this.forms;
+	}
+
+	public ByteInterner getLemmas() {
+		return this.lemmas;
+	}
+
+	public ByteInterner getTags() {
+		return this.tags;
+	}
+
+	public ByteInterner getLabels() {
+		return this.labels;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private void map(long start) throws IOException {
+		this.bufferStart = start;
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CoNLLUReader.WINDOW, this.end - start));
+		this.position = 0;
+	}
+
+	/**
+	 * @return Buffer position of the '\n' ending the current line or of the end of the file,
+	 * remaps the window when the line does not fit in it
+	 */
+	private int findLineEnd() throws IOException {
+		int end = this.position;
+		while (end < this.buffer.limit() && '\n' != this.buffer.get(end)) {
+			++end;
+		}
+		if (end == this.buffer.limit() && this.bufferStart + end < this.end && this.position > 0) {
+			this.map(this.bufferStart + this.position);
+			return this.findLineEnd();
+		}
+		return end;
+	}
+
+	/**
+	 * @return Whether the current line ending at end is empty, '\r' alone counts as empty
+	 */
+	private boolean isBlank(int end) {
+		return end == this.position || (end == this.position + 1 && '\r' == this.buffer.get(this.position));
+	}
+
+	private void readToken(int end) {
+		int field = 0;
+		this.fieldStarts[0] = this.position;
+		for (int i = this.position; i < end && field <= CoNLLUReader.LABEL; ++i) {
+			if ('\t' == this.buffer.get(i)) {
+				this.fieldEnds[field] = i;
+				if (++field <= CoNLLUReader.LABEL) {
+					this.fieldStarts[field] = i + 1;
+				}
+			}
+		}
+		if (field < CoNLLUReader.LABEL) {
+			//malformed line
+			return;
+		}
+		if (field == CoNLLUReader.LABEL) {
+			//the label is the last column
+			this.fieldEnds[field] = ('\r' == this.buffer.get(end - 1)) ? end - 1 : end;
+		}
+		int sentenceIndex = this.parseNumber(0);
+		if (sentenceIndex < 0) {
+			//multiword token or empty node
+			return;
+		}
+		if (this.length == this.heads.length) {
+			int capacity = 2*this.length;
+			this.sentenceIndices = Arrays.copyOf(this.sentenceIndices, capacity);
+			this.formIds = Arrays.copyOf(this.formIds, capacity);
+			this.lemmaIds = Arrays.copyOf(this.lemmaIds, capacity);
+			this.tagIds = Arrays.copyOf(this.tagIds, capacity);
+			this.labelIds = Arrays.copyOf(this.labelIds, capacity);
+			this.heads = Arrays.copyOf(this.heads, capacity);
+		}
+		this.sentenceIndices[this.length] = sentenceIndex;
+		this.formIds[this.length] = this.intern(this.forms, CoNLLUReader.FORM);
+		this.lemmaIds[this.length] = this.intern(this.lemmas, CoNLLUReader.LEMMA);
+		this.tagIds[this.length] = this.intern(this.tags, CoNLLUReader.POS);
+		this.heads[this.length] = this.parseNumber(CoNLLUReader.HEAD);
+		this.labelIds[this.length] = this.intern(this.labels, CoNLLUReader.LABEL);
+		++this.length;
+	}
+
+	private int intern(ByteInterner interner, int field) {
+		return interner.intern(this.buffer, this.fieldStarts[field], this.fieldEnds[field]);
+	}
+
+	/**
+	 * @return Value of a field of decimal digits or -1 if it has other characters
+	 */
+	private int parseNumber(int field) {
+		int number = 0;
+		for (int i = this.fieldStarts[field]; i < this.fieldEnds[field]; ++i) {
+			int digit = this.buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			number = 10*number + digit;
+		}
+		return number;
+	}
+}
@@ -1,64 +1,157 @@
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 
 public class Configuration {
 
-	List<Token> sentence;
+	/**
+	 * parser ids of the words indexed by sentence index, ROOT at 0
+	 */
+	int[] wordIds;
+	int[] tagIds;
+	int[] labelIds;
 	
-	List<Integer> stack;
-	List<Integer> buffer;
+	/**
+	 * stack[0..stackSize) bottom to top
+	 */
+	int[] stack;
+	int stackSize;
+	/**
+	 * buffer[bufferHead..buffer.length) front to back
+	 * words only ever leave the buffer from the front
+	 */
+	int[] buffer;
+	int bufferHead;
 	DependencyTree arcs;
 	
+	/**
+	 * per head, updated by addArc, -1 when there is no such child
+	 */
+	int[] leftmostChild;
+	int[] secondLeftmostChild;
+	int[] rightmostChild;
+	int[] secondRightmostChild;
+	int[] childrenCount;
+	
+	/**
+	 * @param sentence Words with ROOT first
+	 */
 	public Configuration(List<Token> sentence) {
-		this.sentence = sentence;
-		this.stack = new LinkedList<Integer>();
-		this.buffer = new LinkedList<Integer>();
-		this.arcs = new DependencyTree();
-		
-		this.stack.add(this.sentence.get(0).getSentenceId());
-		boolean skipRoot = true;//skip first word since it is root
-		for (Token token : this.sentence) {
-			if (skipRoot) {
-				skipRoot = false;
-				continue;
+		this(sentence.size());
+		int i = 0;
+		for (Token token : sentence) {
+			this.wordIds[i] = token.getId();
+			this.tagIds[i] = token.getTagId();
+			this.labelIds[i] = token.getLabelId();
+			if (0 == i) {
+				this.stack[this.stackSize++] = token.getSentenceId();
+			} else {
+				this.buffer[i - 1] = token.getSentenceId();
 			}
-			this.buffer.add(token.getSentenceId());
+			++i;
+		}
+	}
+	
+	/**
+	 * Initial configuration of a corpus sentence, ROOT gets rootWordId and tag and label 0
+	 */
+	public Configuration(Corpus corpus, int sentence, int rootWordId) {
+		this(corpus.getSentenceLength(sentence) + 1);
+		this.wordIds[0] = rootWordId;
+		this.stack[this.stackSize++] = 0;
+		int start = corpus.getSentenceStart(sentence);
+		for (int i = 1; i < this.wordIds.length; ++i) {
+			this.wordIds[i] = corpus.getWordId(start + i - 1);
+			this.tagIds[i] = corpus.getTagId(start + i - 1);
+			this.labelIds[i] = corpus.getLabelId(start + i - 1);
+			this.buffer[i - 1] = i;
 		}
 	}
 	
+	/**
+	 * @param size Number of words including ROOT
+	 */
+	private Configuration(int size) {
+		this.wordIds = new int[size];
+		this.tagIds = new int[size];
+		this.labelIds = new int[size];
+		this.stack = new int[size];
+		this.stackSize = 0;
+		this.buffer = new int[size - 1];
+		this.bufferHead = 0;
+		this.arcs = new DependencyTree(size);
+		this.leftmostChild = new int[size];
+		this.secondLeftmostChild = new int[size];
+		this.rightmostChild = new int[size];
+		this.secondRightmostChild = new int[size];
+		this.childrenCount = new int[size];
+		Arrays.fill(this.leftmostChild, -1);
+		Arrays.fill(this.secondLeftmostChild, -1);
+		Arrays.fill(this.rightmostChild, -1);
+		Arrays.fill(this.secondRightmostChild, -1);
+	}
+	
 	/**
 	 * @param h - word index of head
 	 * @param t - word index of dependent
 	 * @param l - label
 	 */
 	public void addArc(int h, int t, String l) {
-		this.arcs.add(new Arc(h, t, l));
+		this.addArc(h, t, DependencyTree.getLabelId(l));
+	}
+	
+	/**
+	 * @param labelId DependencyTree label id
+	 */
+	public void addArc(int h, int t, int labelId) {
+		this.arcs.add(h, t, labelId);
+		++this.childrenCount[h];
+		if (t < h) {
+			if (this.leftmostChild[h] < 0 || t < this.leftmostChild[h]) {
+				this.secondLeftmostChild[h] = this.leftmostChild[h];
+				this.leftmostChild[h] = t;
+			} else if (this.secondLeftmostChild[h] < 0 || t < this.secondLeftmostChild[h]) {
+				this.secondLeftmostChild[h] = t;
+			}
+		} else {
+			if (t > this.rightmostChild[h]) {
+				this.secondRightmostChild[h] = this.rightmostChild[h];
+				this.rightmostChild[h] = t;
+			} else if (t > this.secondRightmostChild[h]) {
+				this.secondRightmostChild[h] = t;
+			}
+		}
 	}
 	
     /**
 	 * Get the sentence index of the k-th word on the buffer
 	 */
 	public int getBuffer(int k) {
-		if (k >= this.buffer.size()) {
+		if (k >= this.getBufferSize()) {
 			return -1;
 		}
-		return this.buffer.get(k);
+		return this.buffer[this.bufferHead + k];
 	}
 
 	public int getBufferSize() {
-		return this.buffer.size();
+		return this.buffer.length - this.bufferHead;
 	}
 	
-	public int getHead(int k) {
-		return this.sentence.get(k).getHead();
-	}
-
-	public String getLabel(int k) {
-		return this.sentence.get(k).getLabel();
+	public int getLabelId(int k) {
+		return this.labelIds[k];
 	}
 
+	/**
+	 * The first two children on each side are kept up to date by addArc,
+	 * further ones are looked up in the arcs
+	 */
 	public int getLeftChild(int k, int cnt) {
+		if (1 == cnt) {
+			return this.leftmostChild[k];
+		}
+		if (2 == cnt) {
+			return this.secondLeftmostChild[k];
+		}
 		int childCount = 0;
 		List<Integer> sortedChildren = this.arcs.getSortedChildren(k);
 		ListIterator<Integer> it = sortedChildren.listIterator();
@@ -75,11 +168,17 @@ public class Configuration {
 		return -1;
 	}
 
-	public String getPOS(int k) {
-		return this.sentence.get(k).getPOSTag();
+	public int getTagId(int k) {
+		return this.tagIds[k];
 	}
 	
 	public int getRightChild(int k, int cnt) {
+		if (1 == cnt) {
+			return this.rightmostChild[k];
+		}
+		if (2 == cnt) {
+			return this.secondRightmostChild[k];
+		}
 		int childCount = 0;
 		List<Integer> sortedChildren = this.arcs.getSortedChildren(k);
 		ListIterator<Integer> it = sortedChildren.listIterator(sortedChildren.size());
@@ -96,64 +195,68 @@ public class Configuration {
 		return -1;
 	}
 	
-//	public int getSentenceSize() {
-//		return sentence.size();
-//	}
+	/**
+	 * @return Number of words including ROOT
+	 */
+	public int getSentenceSize() {
+		return this.wordIds.length;
+	}
+	
+	/**
+	 * @return Number of children k got so far
+	 */
+	public int getChildrenCount(int k) {
+		return this.childrenCount[k];
+	}
 	
 	public int getStack(int k) {
-		if (this.stack.size() - (1 + k) < 0) {
+		if (this.stackSize - (1 + k) < 0) {
 			return -1;
 		}
-		return this.stack.get(this.stack.size() - (1 + k));
+		return this.stack[this.stackSize - (1 + k)];
 	}
 	
 	public int getStackSize() {
-		return this.stack.size();
+		return this.stackSize;
 	}
 	
-	public String getWord(int k) {
-		return this.sentence.get(k).getLemma();
+	public int getWordId(int k) {
+		return this.wordIds[k];
 	}
 	
+	/**
+	 * @return Whether k has gold children that are not attached yet, O(1)
+	 */
 	public boolean hasOtherChild(int k, DependencyTree goldTree) {
-		return this.countChildren(k, this.arcs) != this.countChildren(k, goldTree);
+		return this.childrenCount[k] != goldTree.countChildren(k);
 	}
 	
 	public boolean removeSecondTopStack() {
-		if (this.stack.size() < 2) {
+		if (this.stackSize < 2) {
 			return false;
 		}
-		this.stack.remove(this.stack.size() - 2);
+		this.stack[this.stackSize - 2] = this.stack[this.stackSize - 1];
+		--this.stackSize;
 		return true;
 	}
 	
 	public boolean removeTopStack() {
-		if (this.stack.isEmpty()) {
+		if (0 == this.stackSize) {
 			return false;
 		}
-		this.stack.remove(this.stack.size() - 1);
+		--this.stackSize;
 		return true;
 	}
 	
 	public boolean shift() {
-		if (this.buffer.isEmpty()) {
+		if (0 == this.getBufferSize()) {
 			return false;
 		}
-		this.stack.add(this.buffer.remove(0).intValue());
+		this.stack[this.stackSize++] = this.buffer[this.bufferHead++];
 		return true;
 	}
 	
 	public DependencyTree getDependencyTree() {
 		return this.arcs;
 	}
-	
-	private int countChildren(int k, DependencyTree tree) {
-		int count = 0;
-		for (Arc arc : tree) {
-			if (arc.getHeadSentenceIndex() == k) {
-				++count;
-			}
-		}
-		return count;
-	}
 }
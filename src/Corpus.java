@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Treebank stored by column: every column is one int array over the tokens of all
+ * sentences, sentence s owns the tokens [sentenceStarts[s]..sentenceStarts[s+1]).
+ * The token at offset i of a sentence has sentence index i + 1, ROOT is not stored.
+ * - lemmas, tags and labels: ids of the distinct values of the corpus
+ * - heads: sentence index of the head, 0 for ROOT
+ * - wordIds, tagIds and labelIds: parser ids set by resolveIds, treeLabelIds: DependencyTree label ids
+ * A token costs 8 ints and the Strings are only kept once per distinct value.
+ * Read-only once loaded and resolved, so parsing threads can share it.
+ */
+public class Corpus {
+
+	private int sentencesCount;
+	private int[] sentenceStarts;
+	private int tokensCount;
+
+	private int[] lemmas;
+	private int[] tags;
+	private int[] labels;
+	private int[] heads;
+
+	private int[] wordIds;
+	private int[] tagIds;
+	private int[] labelIds;
+	private int[] treeLabelIds;
+
+	private final Values lemmaValues;
+	private final Values tagValues;
+	private final Values labelValues;
+
+	public Corpus() {
+		this.sentencesCount = 0;
+		this.sentenceStarts = new int[64];
+		this.tokensCount = 0;
+		this.lemmas = new int[1024];
+		this.tags = new int[this.lemmas.length];
+		this.labels = new int[this.lemmas.length];
+		this.heads = new int[this.lemmas.length];
+		this.wordIds = new int[this.lemmas.length];
+		this.tagIds = new int[this.lemmas.length];
+		this.labelIds = new int[this.lemmas.length];
+		this.treeLabelIds = new int[this.lemmas.length];
+		this.lemmaValues = new Values();
+		this.tagValues = new Values();
+		this.labelValues = new Values();
+	}
+
+	/**
+	 * Read a CoNLL-U file, chunks are read in parallel and appended in file order.
+	 * Sentences without tokens are skipped. Parser ids are 0 until resolveIds.
+	 */
+	public static Corpus load(Path file) throws IOException {
+		return Corpus.load(file, true);
+	}
+
+	/**
+	 * @param ordered False to append the chunks in the order they are done, for
+	 * callers that only need the values of the corpus and not the sentence order
+	 */
+	public static Corpus load(Path file, boolean ordered) throws IOException {
+		final Corpus corpus = new Corpus();
+		ParallelCoNLLUReader.ChunkReader<Corpus> chunkReader = new ParallelCoNLLUReader.ChunkReader<Corpus>() {
+			public Corpus read(CoNLLUReader reader) throws IOException {
+				//value ids of the chunk are the ids of the reader interners
+				Corpus chunk = new Corpus();
+				while (reader.nextSentence()) {
+					chunk.addSentence(reader);
+				}
+				chunk.lemmaValues.addAll(reader.getLemmas());
+				chunk.tagValues.addAll(reader.getTags());
+				chunk.labelValues.addAll(reader.getLabels());
+				return chunk;
+			}
+		};
+		if (!ordered) {
+			new ParallelCoNLLUReader(file).forEachChunk(chunkReader, new Consumer<Corpus>() {
+				public void accept(Corpus chunk) {
+					corpus.append(chunk);
+				}
+			});
+			return corpus;
+		}
+		try {
+			Iterator<Corpus> chunks = new ParallelCoNLLUReader(file).readChunks(chunkReader);
+			while (chunks.hasNext()) {
+				corpus.append(chunks.next());
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return corpus;
+	}
+
+	private void addSentence(CoNLLUReader reader) {
+		int length = reader.getLength();
+		if (0 == length) {
+			return;
+		}
+		this.ensureCapacity(length);
+		for (int token = 0; token < length; ++token) {
+			int index = this.tokensCount + token;
+			this.lemmas[index] = reader.getLemmaId(token);
+			this.tags[index] = reader.getTagId(token);
+			this.labels[index] = reader.getLabelId(token);
+			this.heads[index] = reader.getHead(token);
+		}
+		this.tokensCount += length;
+		this.sentenceStarts[++this.sentencesCount] = this.tokensCount;
+	}
+
+	/**
+	 * Append the sentences of other, its value ids are mapped to the ones of this corpus
+	 */
+	private void append(Corpus other) {
+		int[] lemmaMap = this.lemmaValues.addAll(other.lemmaValues);
+		int[] tagMap = this.tagValues.addAll(other.tagValues);
+		int[] labelMap = this.labelValues.addAll(other.labelValues);
+		int[] treeLabelMap = new int[labelMap.length];
+		for (int label = 0; label < labelMap.length; ++label) {
+			treeLabelMap[label] = DependencyTree.getLabelId(other.labelValues.get(label));
+		}
+		this.ensureCapacity(other.tokensCount);
+		for (int token = 0; token < other.tokensCount; ++token) {
+			int index = this.tokensCount + token;
+			this.lemmas[index] = lemmaMap[other.lemmas[token]];
+			this.tags[index] = tagMap[other.tags[token]];
+			this.labels[index] = labelMap[other.labels[token]];
+			this.heads[index] = other.heads[token];
+			this.treeLabelIds[index] = treeLabelMap[other.labels[token]];
+		}
+		for (int sentence = 1; sentence <= other.sentencesCount; ++sentence) {
+			this.sentenceStarts[this.sentencesCount + sentence] = this.tokensCount + other.sentenceStarts[sentence];
+		}
+		this.sentencesCount += other.sentencesCount;
+		this.tokensCount += other.tokensCount;
+	}
+
+	/**
+	 * Make room for more tokens and at least as many sentences
+	 */
+	private void ensureCapacity(int tokens) {
+		if (this.sentencesCount + tokens + 1 >= this.sentenceStarts.length) {
+			this.sentenceStarts = Arrays.copyOf(this.sentenceStarts, Math.max(2*this.sentenceStarts.length, this.sentencesCount + tokens + 2));
+		}
+		if (this.tokensCount + tokens <= this.lemmas.length) {
+			return;
+		}
+		int capacity = Math.max(2*this.lemmas.length, this.tokensCount + tokens);
+		this.lemmas = Arrays.copyOf(this.lemmas, capacity);
+		this.tags = Arrays.copyOf(this.tags, capacity);
+		this.labels = Arrays.copyOf(this.labels, capacity);
+		this.heads = Arrays.copyOf(this.heads, capacity);
+		this.wordIds = Arrays.copyOf(this.wordIds, capacity);
+		this.tagIds = Arrays.copyOf(this.tagIds, capacity);
+		this.labelIds = Arrays.copyOf(this.labelIds, capacity);
+		this.treeLabelIds = Arrays.copyOf(this.treeLabelIds, capacity);
+	}
+
+	/**
+	 * Fill the parser id columns, every distinct value is looked up once (0 when unknown).
+	 * Has to be called again when the vocabulary changes.
+	 */
+	public void resolveIds(Map<String, Integer> reverseVocabulary, Map<String, Integer> reverseTags, Map<String, Integer> reverseLabels) {
+		Corpus.resolve(this.lemmas, this.lemmaValues.getIds(reverseVocabulary), this.wordIds, this.tokensCount);
+		Corpus.resolve(this.tags, this.tagValues.getIds(reverseTags), this.tagIds, this.tokensCount);
+		Corpus.resolve(this.labels, this.labelValues.getIds(reverseLabels), this.labelIds, this.tokensCount);
+	}
+
+	private static void resolve(int[] values, int[] valueIds, int[] ids, int count) {
+		for (int token = 0; token < count; ++token) {
+			ids[token] = valueIds[values[token]];
+		}
+	}
+
+	public int getSentencesCount() {
+		return this.sentencesCount;
+	}
+
+	public int getTokensCount() {
+		return this.tokensCount;
+	}
+
+	/**
+	 * @return Token index of the first word of sentence
+	 */
+	public int getSentenceStart(int sentence) {
+		return this.sentenceStarts[sentence];
+	}
+
+	/**
+	 * @return Number of words of sentence, ROOT excluded
+	 */
+	public int getSentenceLength(int sentence) {
+		return this.sentenceStarts[sentence + 1] - this.sentenceStarts[sentence];
+	}
+
+	public int getWordId(int token) {
+		return this.wordIds[token];
+	}
+
+	public int getTagId(int token) {
+		return this.tagIds[token];
+	}
+
+	public int getLabelId(int token) {
+		return this.labelIds[token];
+	}
+
+	public int getTreeLabelId(int token) {
+		return this.treeLabelIds[token];
+	}
+
+	/**
+	 * @return Sentence index of the head of token, 0 for ROOT
+	 */
+	public int getHead(int token) {
+		return this.heads[token];
+	}
+
+	public String getLemma(int token) {
+		return this.lemmaValues.get(this.lemmas[token]);
+	}
+
+	/**
+	 * @return Distinct lemmas in the order they first appear
+	 */
+	public List<String> getLemmas() {
+		return this.lemmaValues.strings;
+	}
+
+	/**
+	 * @return Distinct POS tags in the order they first appear
+	 */
+	public List<String> getTags() {
+		return this.tagValues.strings;
+	}
+
+	/**
+	 * @return Distinct labels in the order they first appear
+	 */
+	public List<String> getLabels() {
+		return this.labelValues.strings;
+	}
+
+	/**
+	 * @return Gold tree of sentence
+	 */
+	public DependencyTree getDependencyTree(int sentence) {
+		int start = this.sentenceStarts[sentence];
+		int length = this.getSentenceLength(sentence);
+		DependencyTree tree = new DependencyTree(length + 1);
+		for (int word = 0; word < length; ++word) {
+			tree.add(this.heads[start + word], word + 1, this.treeLabelIds[start + word]);
+		}
+		return tree;
+	}
+
+	/**
+	 * Distinct Strings of a column by id
+	 */
+	private static class Values {
+		private final List<String> strings;
+		private final Map<String, Integer> ids;
+
+		public Values() {
+			this.strings = new ArrayList<String>();
+			this.ids = new HashMap<String, Integer>();
+		}
+
+		public String get(int id) {
+			return this.strings.get(id);
+		}
+
+		/**
+		 * Append the values of interner, a fresh Values gets the interner ids
+		 */
+		public void addAll(ByteInterner interner) {
+			for (int id = 0; id < interner.size(); ++id) {
+				this.add(interner.getString(id));
+			}
+		}
+
+		/**
+		 * @return Ids in this of the values of other by their id in other
+		 */
+		public int[] addAll(Values other) {
+			int[] map = new int[other.strings.size()];
+			for (int id = 0; id < map.length; ++id) {
+				map[id] = this.add(other.strings.get(id));
+			}
+			return map;
+		}
+
+		private int add(String value) {
+			Integer id = this.ids.get(value);
+			if (null == id) {
+				id = this.strings.size();
+				this.strings.add(value);
+				this.ids.put(value, id);
+			}
+			return id;
+		}
+
+		/**
+		 * @return Parser id of every value, 0 for unknown ones
+		 */
+		public int[] getIds(Map<String, Integer> reverseIds) {
+			int[] result = new int[this.strings.size()];
+			for (int id = 0; id < result.length; ++id) {
+				result[id] = DependencyParser.getId(reverseIds, this.strings.get(id));
+			}
+			return result;
+		}
+	}
+}
@@ -2,43 +2,36 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import common.MatrixOperations;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 
 public class DependencyParser {
 	
-	private Path filePath;
-	private BufferedReader reader;
-	private boolean EOFreached;
-	private static final String header =  //words
-										  "s1,lc1(s1),lc1(lc1(s1)),lc2(s1),rc1(s1),rc1(rc1(s1)),rc2(s1),"
-										+ "s2,lc1(s2),lc1(lc1(s2)),lc2(s2),rc1(s2),rc1(rc1(s2)),rc2(s2),"
-										+ "s3,b1,b2,b3,"
-										  //corresponding POS tags
-										+ "s1.t,lc1(s1).t,lc1(lc1(s1)).t,lc2(s1).t,rc1(s1).t,rc1(rc1(s1)).t,rc2(s1).t,"
-										+ "s2.t,lc1(s2).t,lc1(lc1(s2)).t,lc2(s2).t,rc1(s2).t,rc1(rc1(s2)).t,rc2(s2).t,"
-										+ "s3.t,b1.t,b2.t,b3.t,"
-										  //corresponding arcs
-										  //except the 3 words on the stack and the 3 on the buffer since they don't have eny yet
-										+ "lc1(s1).l,lc1(lc1(s1)).l,lc2(s1).l,rc1(s1).l,rc1(rc1(s1)).l,rc2(s1).l,"
-										+ "lc1(s2).l,lc1(lc1(s2)).l,lc2(s2).l,rc1(s2).l,rc1(rc1(s2)).l,rc2(s2).l,"
-										  //transition
-										+ "transition";
-	
+	private FeatureExtractor featureExtractor;
 	private ArcStandard arcStandard;
 	private NeuralNetwork network;
+	private TransitionClassifier classifier;
+	private ThreadLocal<NetworkWorkspace> workspaces;
 	private static final double convergenceThreshold = 10;
+	private int precomputedCount;
+	private Path precomputeTrainFile;
+	private boolean saveExamples;
 	
 //	private NeuralNetworkJBLAS jnetwork;
 	
@@ -53,11 +46,10 @@ public class DependencyParser {
 	private Set<String> trainVocabulary;
 	
 	public DependencyParser() {
-		this.filePath = null;
-		this.reader = null;
-		this.EOFreached = true;
 		//arc standard needs to be passed labels
 		this.arcStandard = null;
+		//-Dfeatures=<template> to try another feature set
+		this.featureExtractor = new FeatureExtractor(System.getProperty("features", FeatureExtractor.DEFAULT_TEMPLATE));
 		this.vocabulary = new HashMap<Integer, String>();
 		this.tags = new HashMap<Integer, String>();
 		this.labels = new HashMap<Integer, String>();
@@ -67,17 +59,11 @@ public class DependencyParser {
 		this.reverseTags = new HashMap<String, Integer>();
 		this.reverseLabels = new HashMap<String, Integer>();
 		this.trainVocabulary = new HashSet<String>();
-	}
-	
-	public void openFile(Path filePath) {
-		this.EOFreached = false;
-		this.filePath = filePath;
-		try {
-			reader = Files.newBufferedReader(this.filePath);
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Could not open conllu file: " + filePath + " " + e.getMessage());
-		}
+		this.precomputedCount = 0;
+		this.precomputeTrainFile = null;
+		//-DsaveExamples=true to keep the examples train generates in data/
+		this.saveExamples = Boolean.getBoolean("saveExamples");
+		this.workspaces = new ThreadLocal<NetworkWorkspace>();
 	}
 	
 	public void buildVocabulary(Path train, Path valid, Path test) {
@@ -87,39 +73,42 @@ public class DependencyParser {
 	}
 	
 	private void collectData(Path file) {
-		this.openFile(file);
+		Corpus corpus = this.loadCorpus(file, false);
 		//Tree sets because for some reason I though it might be nice
 		//if they are ordered alphabetically
-		Set<String> words = new TreeSet<String>();
-		Set<String> tags = new TreeSet<String>();
-		Set<String> labels = new TreeSet<String>();
-		String line = new String();
-		while (line != null) {
-			try {
-				line = this.reader.readLine();
-				if (line == null) {
-					this.EOFreached = true;
-					break;
-				}
-			} catch (IOException e) {
-				System.err.println("Failed to read word" + " " + e.getMessage());
-				continue;
-			}
-			if (line.isEmpty() || line.charAt(0) == '#') {
-				continue;
-			}
-			String[] parts = line.split("\t");
-			Token token = new Token(parts, 0);
-			words.add(token.getLemma());
-			tags.add(token.getPOSTag());
-			labels.add(token.getLabel());
-		}
+		Set<String> words = new TreeSet<String>(corpus.getLemmas());
+		Set<String> tags = new TreeSet<String>(corpus.getTags());
+		Set<String> labels = new TreeSet<String>(corpus.getLabels());
 		
 		this.populateVocabulary(words);
 		this.populatePOStags(tags);
 		this.populateLabels(labels);
 	}
 	
+	/**
+	 * Read a whole file into a corpus with the current parser ids, empty if it can not be read
+	 */
+	public Corpus loadCorpus(Path file) {
+		return this.loadCorpus(file, true);
+	}
+	
+	/**
+	 * @param ordered False when only the words, tags and labels of the file are used,
+	 * the chunks are then taken as soon as they are read
+	 */
+	private Corpus loadCorpus(Path file, boolean ordered) {
+		Corpus corpus;
+		try {
+			corpus = Corpus.load(file, ordered);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Could not read conllu file: " + file + " " + e.getMessage());
+			corpus = new Corpus();
+		}
+		corpus.resolveIds(this.reverseVocabulary, this.reverseTags, this.reverseLabels);
+		return corpus;
+	}
+	
 	public void serializeVocabulary(Path vocab) {
 		try {
 			OutputStream fileOut = Files.newOutputStream(vocab);
@@ -174,47 +163,19 @@ public class DependencyParser {
 		this.initializeArcStandard();
 	}
 	
-	public void initializeData() {
+	public void initializeData(Path file) {
 		//Tree sets because for some reason I though it might be nice
 		//if they are ordered alphabetically
-		Set<String> words = new TreeSet<String>();
-		Set<String> tags = new TreeSet<String>();
-		Set<String> labels = new TreeSet<String>();
-		String line = new String();
-		while (line != null) {
-			try {
-				line = this.reader.readLine();
-				if (line == null) {
-					this.EOFreached = true;
-					break;
-				}
-			} catch (IOException e) {
-				System.err.println("Failed to read word" + " " + e.getMessage());
-				continue;
-			}
-			if (line.isEmpty() || line.charAt(0) == '#') {
-				continue;
-			}
-			String[] parts = line.split("\t");
-			Token token = new Token(parts, 0);
-			words.add(token.getLemma());
-			tags.add(token.getPOSTag());
-			labels.add(token.getLabel());
-		}
+		Corpus corpus = this.loadCorpus(file, false);
+		Set<String> words = new TreeSet<String>(corpus.getLemmas());
+		Set<String> tags = new TreeSet<String>(corpus.getTags());
+		Set<String> labels = new TreeSet<String>(corpus.getLabels());
 		
 		this.populateVocabulary(words);
 		this.populatePOStags(tags);
 		this.populateLabels(labels);
 		this.initializeArcStandard();
 		this.initializeNeuralNetwork();
-		
-		try {
-			reader.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println(e.getMessage());
-		}
-		this.openFile(filePath);
 	}
 	
 	public void printVocabulary() {
@@ -239,51 +200,15 @@ public class DependencyParser {
 		return this.vocabulary.get(id);
 	}
 	
-	public boolean hasNextSentence() {
-		return !this.EOFreached;
-	}
-	
-	public List<Token> tokenizeNextSentence() {
-		String line = new String();
-		List<Token> words = new LinkedList<Token>();
-		while (line != null) {
-			try {
-				line = this.reader.readLine();
-				if (line == null) {
-					this.EOFreached = true;
-					break;
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.err.println(e.getMessage());
-				continue;
-			}
-			if (line.isEmpty() || line.charAt(0) == '#') {
-				break;
-			}
-			String[] parts = line.split("\t");
-			words.add(new Token(parts, this.reverseVocabulary.get(parts[2])));
-		}
-		if (this.EOFreached) {
-			try {
-				reader.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.err.println(e.getMessage());
-			}
-		}
-		return words;
-	}
-	
 	public DependencyTree getSentenceDependencyTree(List<Token> sentence) {
-		DependencyTree dTree = new DependencyTree();
+		DependencyTree dTree = new DependencyTree(sentence.size() + 1);
 		for (int i = 0; i < sentence.size(); ++i) {
 			Token token = sentence.get(i);
 
 			int headIdx = token.getHead();
 			int headSentenceIndex = (0 == headIdx) ? headIdx : sentence.get(headIdx - 1).getSentenceId();
 			int depSentenceIndex = token.getSentenceId();
-			dTree.add(new Arc(headSentenceIndex, depSentenceIndex, token.getLabel()));
+			dTree.add(headSentenceIndex, depSentenceIndex, token.getTreeLabelId());
 		}
 		return dTree;
 	}
@@ -291,44 +216,72 @@ public class DependencyParser {
 	public DependencyTree getOracleDependencyTree(List<Token> sentence, DependencyTree goldTree) {
 		Configuration c = this.arcStandard.initialConfiguration(sentence);
 		while (!this.arcStandard.isTerminal(c)) {
-			String transition = this.arcStandard.getOracle(c, goldTree);
-			this.arcStandard.apply(c, transition);
+			int transitionId = this.arcStandard.getOracle(c, goldTree);
+			if (transitionId < 0) {
+				//the gold tree can not be reached
+				break;
+			}
+			this.arcStandard.apply(c, transitionId);
 		}
 		DependencyTree predictedTree = c.getDependencyTree();
-		predictedTree.sort();
 		return predictedTree;
 	}
 	
 	public void saveOracleDependencyTreeParse(List<Token> sentence, DependencyTree goldTree, PrintWriter writer) {
-		Configuration c = this.arcStandard.initialConfiguration(sentence);
-		List<List<Integer>> parseFeatures = new LinkedList<List<Integer>>();
-		List<String> transitions = new LinkedList<String>();
-		while (!this.arcStandard.isTerminal(c)) {
-			List<Integer> features = this.getFeatures(c);
-			parseFeatures.add(features);
-			String transition = this.arcStandard.getOracle(c, goldTree);
-			transitions.add(transition);
-			this.arcStandard.apply(c, transition);
+		int[] records = this.getOracleRecords(this.arcStandard.initialConfiguration(sentence), goldTree);
+		int recordLength = this.featureExtractor.getFeaturesCount() + 1;
+		StringBuilder line = new StringBuilder();
+		for (int offset = 0; offset < records.length; offset += recordLength) {
+			line.setLength(0);
+			for (int feature = 0; feature < recordLength - 1; ++feature) {
+				line.append(records[offset + feature]).append(',');
+			}
+			line.append(records[offset + recordLength - 1]);
+			writer.println(line);
 		}
-		DependencyTree predictedTree = c.getDependencyTree();
-		predictedTree.sort();
-		boolean equal = goldTree.equals(predictedTree);
-		if (equal) {
-			Iterator<List<Integer>> featIt = parseFeatures.iterator();
-			Iterator<String> trIt = transitions.iterator();
-			while (featIt.hasNext() && trIt.hasNext()) {
-				List<Integer> features = featIt.next();
-				int transitionId = this.arcStandard.getTransitionId(trIt.next());
-				String featureString = "";
-				for (int feature : features) {
-					featureString += feature + ",";
-				}
-				writer.println(featureString + transitionId);
+	}
+	
+	/**
+	 * Run the oracle from c
+	 * @return Features followed by the transition id of every step, like the records of an ExampleFile,
+	 * nothing if the gold tree is not reached
+	 */
+	private int[] getOracleRecords(Configuration c, DependencyTree goldTree) {
+		IncrementalFeatureExtractor extractor = new IncrementalFeatureExtractor(this.featureExtractor, c);
+		//every word is shifted once and gets its head once
+		int maxSteps = 2*(c.getSentenceSize() - 1);
+		int featuresCount = this.featureExtractor.getFeaturesCount();
+		int[] records = new int[maxSteps*(featuresCount + 1)];
+		int steps = 0;
+		while (!this.arcStandard.isTerminal(c) && steps < maxSteps) {
+			int transitionId = this.arcStandard.getOracle(c, goldTree);
+			if (transitionId < 0) {
+				//the gold tree can not be reached
+				break;
 			}
+			int[] features = extractor.extract(c);
+			int offset = steps*(featuresCount + 1);
+			System.arraycopy(features, 0, records, offset, featuresCount);
+			records[offset + featuresCount] = transitionId;
+			++steps;
+			this.arcStandard.apply(c, transitionId);
 		}
+		DependencyTree predictedTree = c.getDependencyTree();
+		if (!goldTree.equals(predictedTree)) {
+			return new int[0];
+		}
+		return (steps == maxSteps) ? records : Arrays.copyOf(records, steps*(featuresCount + 1));
 	}
 	
+	/**
+	 * Load the network of modelFile and parse with it from now on
+	 * @throws IllegalStateException When the model can not be read, when its inputs do not match the feature template,
+	 * the model was trained with another template (see the features system property),
+	 * or when precomputation is on and there are no training examples to precompute from
+	 */
 	public void loadModel(Path modelFile) {
+		//a failed read must not leave the previous network in place
+		this.network = null;
 		try {
 			InputStream fileIn = Files.newInputStream(modelFile);
 			ObjectInputStream objInStream = new ObjectInputStream(fileIn);
@@ -346,7 +299,313 @@ public class DependencyParser {
 			e.printStackTrace();
 			System.err.println("Some step of deserialization failed..." + " " + e.getMessage());
 		}
+		if (null == this.network) {
+			throw new IllegalStateException("Could not load a model from " + modelFile);
+		}
+		if (this.network.getWordInputsCount() != this.featureExtractor.getWordFeaturesCount()
+				|| this.network.getTagInputsCount() != this.featureExtractor.getTagFeaturesCount()
+				|| this.network.getLabelInputsCount() != this.featureExtractor.getLabelFeaturesCount()) {
+			String message = "Model inputs of " + modelFile + " do not match the feature template: "
+						   + this.network.getWordInputsCount() + "/" + this.network.getTagInputsCount() + "/" + this.network.getLabelInputsCount()
+						   + " vs " + this.featureExtractor.getWordFeaturesCount() + "/" + this.featureExtractor.getTagFeaturesCount()
+						   + "/" + this.featureExtractor.getLabelFeaturesCount();
+			//the classifier in use stays the one of the previous network
+			this.network = null;
+			throw new IllegalStateException(message);
+		}
 		this.initializeArcStandard();
+		this.setClassifier(new InferenceNetwork(this.network));
+		if (this.precomputedCount > 0) {
+			Path examplesFile = FileSystems.getDefault().getPath("data", "trainingdata.bin");
+			this.precompute(examplesFile, this.precomputeTrainFile, this.precomputedCount);
+		}
+	}
+	
+	/**
+	 * Number of most frequent (word, position) pairs to precompute when a model is loaded
+	 * 0 disables precomputation
+	 * @param trainFile Treebank the model was trained on, used when data/trainingdata.bin
+	 * can not be used, can be null
+	 */
+	public void setPrecomputedCount(int precomputedCount, Path trainFile) {
+		this.precomputedCount = precomputedCount;
+		this.precomputeTrainFile = trainFile;
+	}
+	
+	/**
+	 * Whether train also saves its examples to data/trainingdata.bin and data/validationdata.bin,
+	 * training itself uses them from memory. Set by -DsaveExamples=true.
+	 * Precomputation reads the saved training examples instead of generating them again.
+	 */
+	public void setSaveExamples(boolean saveExamples) {
+		this.saveExamples = saveExamples;
+	}
+	
+	/**
+	 * Precompute the count most frequent (word, position) pairs of the training examples.
+	 * The examples saved by train are used when they match the loaded vocabulary and
+	 * feature template, otherwise they are generated from trainFile.
+	 * @param trainFile Can be null when only the saved examples should be used
+	 * @throws IllegalStateException When neither file gives any training example
+	 */
+	public void precompute(Path examplesFile, Path trainFile, int count) {
+		List<TrainingExample> examples = Collections.<TrainingExample>emptyList();
+		if (examplesFile.toFile().exists()) {
+			examples = this.getExamples(examplesFile);
+		}
+		if (examples.isEmpty()) {
+			if (null == trainFile) {
+				throw new IllegalStateException("Cannot precompute: no usable training examples in " + examplesFile
+											  + " and no training treebank given");
+			}
+			System.out.println("No saved training examples in " + examplesFile + ", generating them from " + trainFile);
+			examples = this.generateExamples(this.loadCorpus(trainFile));
+			if (examples.isEmpty()) {
+				throw new IllegalStateException("Cannot precompute: no usable training examples in " + examplesFile
+											  + " or " + trainFile);
+			}
+		}
+		this.setClassifier(new InferenceNetwork(this.network, examples, count));
+	}
+	
+	/**
+	 * @param type double, float or int8
+	 * @return Classifier built from the loaded network or null for unknown types
+	 */
+	public TransitionClassifier createClassifier(String type) {
+		switch (type) {
+		case "double":
+			return new InferenceNetwork(this.network);
+		case "float":
+			return new FloatNeuralNetwork(this.network);
+		case "int8":
+			return new QuantizedNeuralNetwork(this.network);
+		}
+		return null;
+	}
+	
+	public void setClassifier(TransitionClassifier classifier) {
+		this.classifier = classifier;
+		//workspaces are sized for the previous classifier
+		this.workspaces = new ThreadLocal<NetworkWorkspace>();
+	}
+	
+	/**
+	 * Parse the given file with each of the given classifier types and report
+	 * UAS, LAS and parsing time side by side
+	 * @param batchSize Sentences decoded together, 1 parses them one at a time
+	 */
+	public void compareModels(Path testFile, String[] types, int batchSize) {
+		Corpus corpus = this.loadCorpus(testFile);
+		List<DependencyTree> goldTrees = new ArrayList<DependencyTree>(corpus.getSentencesCount());
+		for (int sentence = 0; sentence < corpus.getSentencesCount(); ++sentence) {
+			goldTrees.add(corpus.getDependencyTree(sentence));
+		}
+		TransitionClassifier original = this.classifier;
+		for (String type : types) {
+			this.setClassifier(this.createClassifier(type));
+			List<Double> uases = new LinkedList<Double>();
+			List<Double> lases = new LinkedList<Double>();
+			long start = System.currentTimeMillis();
+			List<DependencyTree> predictedTrees;
+			if (batchSize > 1) {
+				predictedTrees = this.predictBatch(corpus, batchSize);
+			} else {
+				predictedTrees = new ArrayList<DependencyTree>(corpus.getSentencesCount());
+				for (int sentence = 0; sentence < corpus.getSentencesCount(); ++sentence) {
+					predictedTrees.add(this.predict(corpus, sentence));
+				}
+			}
+			long time = System.currentTimeMillis() - start;
+			for (int i = 0; i < predictedTrees.size(); ++i) {
+				uases.add(this.getAS(predictedTrees.get(i), goldTrees.get(i), false));
+				lases.add(this.getAS(predictedTrees.get(i), goldTrees.get(i), true));
+			}
+			System.out.println("Model: " + type
+							 + " UAS: " + this.computeMean(uases) + "%"
+							 + " LAS: " + this.computeMean(lases) + "%"
+							 + " Time: " + time + "ms"
+							 + " (" + (double) corpus.getSentencesCount() * 1000 / (double) Math.max(time, 1) + " sentences/s)");
+		}
+		this.setClassifier(original);
+	}
+	
+	/**
+	 * Compare the transitions chosen by the loaded network and the given classifier
+	 * on every oracle configuration of the given file
+	 */
+	public void compareClassifiers(Path inputFile, TransitionClassifier other) {
+		int matching = 0;
+		int total = 0;
+		int[] features = new int[this.featureExtractor.getFeaturesCount()];
+		NetworkWorkspace workspace = other.createWorkspace();
+		int[] wordInputs = workspace.getWordInputs();
+		int[] tagInputs = workspace.getTagInputs();
+		int[] labelInputs = workspace.getLabelInputs();
+		Corpus corpus = this.loadCorpus(inputFile);
+		for (int sentence = 0; sentence < corpus.getSentencesCount(); ++sentence) {
+			DependencyTree dTree = corpus.getDependencyTree(sentence);
+			Configuration c = this.arcStandard.initialConfiguration(corpus, sentence);
+			while (!this.arcStandard.isTerminal(c)) {
+				this.featureExtractor.extract(c, features);
+				this.featureExtractor.split(features, wordInputs, tagInputs, labelInputs);
+				int transitionId = this.network.chooseTransition(wordInputs, tagInputs, labelInputs, 0);
+				if (transitionId == other.chooseTransition(workspace, 0)) {
+					++matching;
+				}
+				++total;
+				int oracleTransitionId = this.arcStandard.getOracle(c, dTree);
+				if (oracleTransitionId < 0) {
+					break;
+				}
+				this.arcStandard.apply(c, oracleTransitionId);
+			}
+		}
+		double percentage = (double) matching * 100 / (double) total;
+		System.out.println("Matching transitions: " + matching + " out of: " + total + " " + percentage + "%");
+	}
+	
+	/**
+	 * Count how many feature slots are null (0) on the oracle configurations of the given file.
+	 * Null slots are skipped by the hidden layer, so the non-null rate is the share of the
+	 * input layer multiplications that are actually done.
+	 */
+	public void measureNullSlots(Path inputFile) {
+		int[] features = new int[this.featureExtractor.getFeaturesCount()];
+		int[] wordNulls = new int[this.featureExtractor.getWordFeaturesCount()];
+		int[] tagNulls = new int[this.featureExtractor.getTagFeaturesCount()];
+		int[] labelNulls = new int[this.featureExtractor.getLabelFeaturesCount()];
+		int configurations = 0;
+		Corpus corpus = this.loadCorpus(inputFile);
+		for (int sentence = 0; sentence < corpus.getSentencesCount(); ++sentence) {
+			DependencyTree dTree = corpus.getDependencyTree(sentence);
+			Configuration c = this.arcStandard.initialConfiguration(corpus, sentence);
+			while (!this.arcStandard.isTerminal(c)) {
+				this.featureExtractor.extract(c, features);
+				this.countNulls(features, 0, wordNulls);
+				this.countNulls(features, wordNulls.length, tagNulls);
+				this.countNulls(features, wordNulls.length + tagNulls.length, labelNulls);
+				++configurations;
+				int oracleTransitionId = this.arcStandard.getOracle(c, dTree);
+				if (oracleTransitionId < 0) {
+					break;
+				}
+				this.arcStandard.apply(c, oracleTransitionId);
+			}
+		}
+		if (0 == configurations) {
+			System.out.println("No configurations in " + inputFile);
+			return;
+		}
+		System.out.println("Configurations: " + configurations);
+		int nulls = this.printNullRates("Word", wordNulls, configurations)
+				  + this.printNullRates("Tag", tagNulls, configurations)
+				  + this.printNullRates("Label", labelNulls, configurations);
+		int slots = (wordNulls.length + tagNulls.length + labelNulls.length) * configurations;
+		System.out.println("All slots null: " + (double) nulls * 100 / (double) slots + "%");
+	}
+	
+	/**
+	 * Compare the incremental features with a full extraction on every oracle configuration of the given file
+	 * @return Number of configurations with different features
+	 */
+	public int checkIncrementalFeatures(Path inputFile) {
+		int[] features = new int[this.featureExtractor.getFeaturesCount()];
+		int configurations = 0;
+		int mismatches = 0;
+		Corpus corpus = this.loadCorpus(inputFile);
+		for (int sentence = 0; sentence < corpus.getSentencesCount(); ++sentence) {
+			DependencyTree dTree = corpus.getDependencyTree(sentence);
+			Configuration c = this.arcStandard.initialConfiguration(corpus, sentence);
+			IncrementalFeatureExtractor extractor = new IncrementalFeatureExtractor(this.featureExtractor, c);
+			while (!this.arcStandard.isTerminal(c)) {
+				this.featureExtractor.extract(c, features);
+				if (!Arrays.equals(features, extractor.extract(c))) {
+					++mismatches;
+				}
+				++configurations;
+				int oracleTransitionId = this.arcStandard.getOracle(c, dTree);
+				if (oracleTransitionId < 0) {
+					break;
+				}
+				this.arcStandard.apply(c, oracleTransitionId);
+			}
+		}
+		System.out.println("Configurations: " + configurations + " with different incremental features: " + mismatches);
+		return mismatches;
+	}
+	
+	/**
+	 * Parse every sentence of the file sequentially, then again on threadsCount threads
+	 * sharing this parser and its classifier, every thread parsing every sentence
+	 * from a different starting point.
+	 * @return Number of trees parsed on the threads that differ from the sequential ones
+	 */
+	public int checkThreadSafety(Path inputFile, int threadsCount) {
+		final Corpus corpus = this.loadCorpus(inputFile);
+		final int sentencesCount = corpus.getSentencesCount();
+		final List<DependencyTree> expectedTrees = new ArrayList<DependencyTree>(sentencesCount);
+		for (int sentence = 0; sentence < sentencesCount; ++sentence) {
+			expectedTrees.add(this.predict(corpus, sentence));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>(threadsCount);
+		for (int thread = 0; thread < threadsCount; ++thread) {
+			final int first = (int) ((long) sentencesCount * thread / threadsCount);
+			results.add(executor.submit(new Callable<Integer>() {
+				public Integer call() {
+					int mismatches = 0;
+					for (int i = 0; i < sentencesCount; ++i) {
+						int sentence = (first + i) % sentencesCount;
+						if (!expectedTrees.get(sentence).equals(DependencyParser.this.predict(corpus, sentence))) {
+							++mismatches;
+						}
+					}
+					return mismatches;
+				}
+			}));
+		}
+		int mismatches = 0;
+		try {
+			for (Future<Integer> result : results) {
+				mismatches += result.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			System.err.println("Failed to check thread safety: " + e.getMessage());
+			e.printStackTrace();
+			mismatches = -1;
+		} finally {
+			executor.shutdown();
+		}
+		System.out.println("Trees parsed on " + threadsCount + " threads: " + (long) threadsCount*sentencesCount
+						 + " different from sequential: " + mismatches);
+		return mismatches;
+	}
+	
+	/**
+	 * Count the null features[from..from+nulls.length) by position
+	 */
+	private void countNulls(int[] features, int from, int[] nulls) {
+		for (int position = 0; position < nulls.length; ++position) {
+			if (0 == features[from + position]) {
+				++nulls[position];
+			}
+		}
+	}
+	
+	/**
+	 * @return Total number of nulls over all positions
+	 */
+	private int printNullRates(String name, int[] nulls, int configurations) {
+		int total = 0;
+		StringBuilder positions = new StringBuilder();
+		for (int position = 0; position < nulls.length; ++position) {
+			total += nulls[position];
+			positions.append(' ').append(String.format("%.1f", (double) nulls[position] * 100 / (double) configurations));
+		}
+		System.out.println(name + " slots null: " + (double) total * 100 / (double) (nulls.length * configurations) + "%");
+		System.out.println(name + " slots null per position (%):" + positions);
+		return total;
 	}
 	
 	public void train(Path inputPath, Path validationFile, Path modelFile) {
@@ -358,12 +617,12 @@ public class DependencyParser {
 		} else {
 			this.initializeNeuralNetwork();
 		}
-		Path trainFile = FileSystems.getDefault().getPath("data", "trainingdata.csv");
-		Path validFile = FileSystems.getDefault().getPath("data", "validationdata.csv");
-		this.generateData(inputPath, trainFile, true);
-		this.generateData(validationFile, validFile, false);
-		List<TrainingExample> trainExamples = this.getExamples(trainFile);
-		List<TrainingExample> validExamples = this.getExamples(validFile);
+		ExampleRecords trainExamples = this.generateExamples(this.loadCorpus(inputPath));
+		ExampleRecords validExamples = this.generateExamples(this.loadCorpus(validationFile));
+		if (this.saveExamples) {
+			this.writeExamples(trainExamples, FileSystems.getDefault().getPath("data", "trainingdata.bin"));
+			this.writeExamples(validExamples, FileSystems.getDefault().getPath("data", "validationdata.bin"));
+		}
 		
 		if (!trainExamples.isEmpty()) {
 			this.train(trainExamples, validExamples, modelFile);
@@ -372,32 +631,133 @@ public class DependencyParser {
 	}
 	
 	public DependencyTree predict(List<Token> sentence) {
-		Configuration c = this.arcStandard.initialConfiguration(sentence);
+		return this.predict(this.arcStandard.initialConfiguration(sentence));
+	}
+	
+	public DependencyTree predict(Corpus corpus, int sentence) {
+		return this.predict(this.arcStandard.initialConfiguration(corpus, sentence));
+	}
+	
+	private DependencyTree predict(Configuration c) {
+		NetworkWorkspace workspace = this.getWorkspace();
+		IncrementalFeatureExtractor extractor = new IncrementalFeatureExtractor(this.featureExtractor, c);
 		while (!this.arcStandard.isTerminal(c)) {
-			ConfigurationState state = this.getConfigurationState(c);
-			int[] wordInputs = this.listToArray(state.getWords());
-			int[] tagInputs = this.listToArray(state.getTags());
-			int[] labelInputs = this.listToArray(state.getLabels());
-			int best = 0;
-			int transitionId = this.network.chooseTransition(wordInputs, tagInputs, labelInputs, best);
-			String transition = this.arcStandard.getTransition(transitionId);
-			while (!this.arcStandard.canApply(c, transition)) {
-				++best;
-				transitionId = this.network.chooseTransition(wordInputs, tagInputs, labelInputs, best);
-				transition = this.arcStandard.getTransition(transitionId);
+			int transitionId = this.chooseTransition(c, extractor, workspace);
+			if (transitionId < 0) {
+				System.err.println("No legal transition for sentence of length " + (c.getSentenceSize() - 1));
+				break;
 			}
-//			int transitionId = this.jnetwork.chooseTransition(wordInputs, tagInputs, labelInputs);
-			this.arcStandard.apply(c, transition);
+			this.arcStandard.apply(c, transitionId);
 		}
 		DependencyTree predictedTree = c.getDependencyTree();
-		predictedTree.sort();
 		return predictedTree;
 	}
 	
+	/**
+	 * Pick the highest scoring legal transition with a single forward pass.
+	 * The network is not run at all when only one transition is legal.
+	 * @return Transition id or -1 if no transition is legal
+	 */
+	private int chooseTransition(Configuration c, IncrementalFeatureExtractor extractor, NetworkWorkspace workspace) {
+		boolean[] legal = workspace.getLegalTransitions();
+		int legalCount = this.arcStandard.fillLegalTransitions(c, legal);
+		if (legalCount < 2) {
+			return ArcStandard.firstLegalTransition(legal);
+		}
+		this.featureExtractor.split(extractor.extract(c), workspace.getWordInputs(), workspace.getTagInputs(), workspace.getLabelInputs());
+		double[] outputs = this.classifier.computeOutputs(workspace);
+		return MatrixOperations.argmax(outputs, legal);
+	}
+	
+	/**
+	 * Parse many sentences in lockstep. Up to batchSize configurations are advanced together,
+	 * scored with a single batched forward pass per step, and finished sentences are replaced
+	 * by the next ones waiting.
+	 * The input, hidden and output buffers of the batch are allocated once per call.
+	 * @return Predicted trees in the order of the sentences of the corpus
+	 */
+	public List<DependencyTree> predictBatch(Corpus corpus, int batchSize) {
+		int sentencesCount = corpus.getSentencesCount();
+		List<DependencyTree> predictedTrees = new ArrayList<DependencyTree>(Collections.nCopies(sentencesCount, (DependencyTree) null));
+		List<Configuration> batch = new ArrayList<Configuration>(batchSize);
+		List<IncrementalFeatureExtractor> extractors = new ArrayList<IncrementalFeatureExtractor>(batchSize);
+		List<Integer> batchIndices = new ArrayList<Integer>(batchSize);
+		//reused by every step
+		BatchWorkspace workspace = this.classifier.createBatchWorkspace(batchSize);
+		boolean[][] legal = workspace.getLegalTransitions();
+		int[] forced = new int[batchSize];
+		int[] scored = new int[batchSize];
+		int nextSentence = 0;
+		while (nextSentence < sentencesCount || !batch.isEmpty()) {
+			//fill up the batch
+			while (batch.size() < batchSize && nextSentence < sentencesCount) {
+				Configuration c = this.arcStandard.initialConfiguration(corpus, nextSentence);
+				if (this.arcStandard.isTerminal(c)) {
+					predictedTrees.set(nextSentence, c.getDependencyTree());
+				} else {
+					batch.add(c);
+					extractors.add(new IncrementalFeatureExtractor(this.featureExtractor, c));
+					batchIndices.add(nextSentence);
+				}
+				++nextSentence;
+			}
+			if (batch.isEmpty()) {
+				break;
+			}
+			//forced transitions are applied right away, the rest is scored together
+			int scoredCount = 0;
+			for (int i = 0; i < batch.size(); ++i) {
+				int legalCount = this.arcStandard.fillLegalTransitions(batch.get(i), legal[i]);
+				forced[i] = (legalCount < 2) ? ArcStandard.firstLegalTransition(legal[i]) : -1;
+				if (legalCount >= 2) {
+					int[] features = extractors.get(i).extract(batch.get(i));
+					this.featureExtractor.split(features, workspace.getWordInputs()[scoredCount],
+							workspace.getTagInputs()[scoredCount], workspace.getLabelInputs()[scoredCount]);
+					scored[scoredCount++] = i;
+				}
+			}
+			double[][] outputs = this.classifier.computeOutputs(workspace, scoredCount);
+			//apply transitions going backwards so finished configurations can be removed in place
+			int scoredIndex = scoredCount - 1;
+			for (int i = batch.size() - 1; i >= 0; --i) {
+				Configuration c = batch.get(i);
+				int transitionId = forced[i];
+				if (scoredIndex >= 0 && scored[scoredIndex] == i) {
+					transitionId = MatrixOperations.argmax(outputs[scoredIndex], legal[i]);
+					--scoredIndex;
+				}
+				boolean stuck = transitionId < 0;
+				if (stuck) {
+					System.err.println("No legal transition for sentence " + batchIndices.get(i));
+				} else {
+					this.arcStandard.apply(c, transitionId);
+				}
+				if (stuck || this.arcStandard.isTerminal(c)) {
+					DependencyTree predictedTree = c.getDependencyTree();
+					predictedTrees.set(batchIndices.get(i), predictedTree);
+					batch.remove(i);
+					extractors.remove(i);
+					batchIndices.remove(i);
+				}
+			}
+		}
+		return predictedTrees;
+	}
+	
 	public void test(Path testFile) {
+		this.test(testFile, 1);
+	}
+	
+	/**
+	 * Parse and score every sentence of the test file on the given number of threads.
+	 * Sentences are read in order, evaluated independently by the workers and merged
+	 * back in order, so the report and the written trees do not depend on threadsCount.
+	 * At most a few sentences per thread are in flight at any time.
+	 */
+	public void test(Path testFile, int threadsCount) {
 		int correct = 0;
 		int total = 0;
-		this.openFile(testFile);
+		final Corpus corpus = this.loadCorpus(testFile);
 		List<Double> uases = new LinkedList<Double>();
 		List<Double> lases = new LinkedList<Double>();
 		int nonprojective = 0;
@@ -428,44 +788,60 @@ public class DependencyParser {
 		this.initTrainVocabulary();
 		Set<String> allUnknownWords = new TreeSet<String>();
 		
-		while (this.hasNextSentence()) {
-			List<Token> parsedSentence = this.tokenizeNextSentence();
-			if (parsedSentence.isEmpty()) {
+		ExecutorService executor = (threadsCount > 1) ? Executors.newFixedThreadPool(threadsCount) : null;
+		Deque<Future<SentenceEvaluation>> pending = new ArrayDeque<Future<SentenceEvaluation>>();
+		int maxPending = 4*Math.max(threadsCount, 1);
+		int nextSentence = 0;
+		while (true) {
+			while (pending.size() < maxPending && nextSentence < corpus.getSentencesCount()) {
+				final int sentence = nextSentence++;
+				FutureTask<SentenceEvaluation> task = new FutureTask<SentenceEvaluation>(new Callable<SentenceEvaluation>() {
+					public SentenceEvaluation call() {
+						return DependencyParser.this.evaluateSentence(corpus, sentence);
+					}
+				});
+				if (null == executor) {
+					task.run();
+				} else {
+					executor.execute(task);
+				}
+				pending.add(task);
+			}
+			if (pending.isEmpty()) {
 				break;
 			}
-			++total;
-			
-			List<String> unknownWords = this.collectUnknownWords(parsedSentence);
-			for (String word : unknownWords) {
-				allUnknownWords.add(word);
+			SentenceEvaluation evaluation;
+			try {
+				evaluation = pending.poll().get();
+			} catch (InterruptedException | ExecutionException e) {
+				System.err.println("Failed to evaluate sentence " + (total + 1) + ": " + e.getMessage());
+				e.printStackTrace();
+				break;
 			}
-			boolean hasUnknownWords = !unknownWords.isEmpty();
+			++total;
 			
-			DependencyTree dTree = this.getSentenceDependencyTree(parsedSentence);
-			dTree.sort();
+			allUnknownWords.addAll(evaluation.unknownWords);
+			boolean hasUnknownWords = !evaluation.unknownWords.isEmpty();
 			
-			DependencyTree oracleTree = this.getOracleDependencyTree(parsedSentence, dTree);
-			boolean projective = dTree.equals(oracleTree);
+			DependencyTree dTree = evaluation.goldTree;
+			DependencyTree predictedTree = evaluation.predictedTree;
+			boolean projective = evaluation.projective;
 			if (!projective) {
 				++nonprojective;
 			}
 			
-			DependencyTree predictedTree = this.predict(parsedSentence);
-			
 			if (projective) {
-				puas.add(this.getAS(predictedTree, dTree, false));
-				plas.add(this.getAS(predictedTree, dTree, true));
+				puas.add(evaluation.uas);
+				plas.add(evaluation.las);
 			}
 			
-			double uas = this.getAS(predictedTree, dTree, false); 
-			double las = this.getAS(predictedTree, dTree, true); 
-			uases.add(uas);
-			lases.add(las);
+			uases.add(evaluation.uas);
+			lases.add(evaluation.las);
 			
-			this.accumulateScoresPerSentenceLength(uasesPerSentenceLength, uas, parsedSentence.size());
-			this.accumulateScoresPerSentenceLength(lasesPerSentenceLength, las, parsedSentence.size());
+			this.accumulateScoresPerSentenceLength(uasesPerSentenceLength, evaluation.uas, evaluation.length);
+			this.accumulateScoresPerSentenceLength(lasesPerSentenceLength, evaluation.las, evaluation.length);
 
-			if (dTree.equals(predictedTree)) {
+			if (evaluation.exact) {
 				++correct;
 				if (hasUnknownWords) {
 					++correctWithUnknownWords;
@@ -489,6 +865,9 @@ public class DependencyParser {
 				}
 			}
 		}
+		if (null != executor) {
+			executor.shutdownNow();
+		}
 		double percentage = (double) correct * 100 / (double) total;
 		System.out.println("Correct: " + correct + " out of: " + total + " " + percentage + "%");
 		System.out.println("Nonprojective: " + nonprojective);
@@ -526,16 +905,44 @@ public class DependencyParser {
 			unknownWordsWriter.println(word);
 		}
 		
+		if (this.classifier instanceof InferenceNetwork && ((InferenceNetwork) this.classifier).isPrecomputed()) {
+			InferenceNetwork inferenceNetwork = (InferenceNetwork) this.classifier;
+			System.out.println("Precomputed hits: " + inferenceNetwork.getPrecomputedHits()
+							 + " misses: " + inferenceNetwork.getPrecomputedMisses());
+		}
+		
 		writerProj.close();
 		writerNonProj.close();
 		unknownWordsWriter.close();
 	}
 	
-	private List<String> collectUnknownWords(List<Token> sentence) {
+	/**
+	 * Everything test needs to know about one sentence. Only reads shared state,
+	 * so it can run on any thread.
+	 */
+	private SentenceEvaluation evaluateSentence(Corpus corpus, int sentence) {
+		SentenceEvaluation evaluation = new SentenceEvaluation();
+		evaluation.length = corpus.getSentenceLength(sentence);
+		evaluation.unknownWords = this.collectUnknownWords(corpus, sentence);
+		
+		evaluation.goldTree = corpus.getDependencyTree(sentence);
+		
+		evaluation.projective = evaluation.goldTree.isProjective();
+		
+		evaluation.predictedTree = this.predict(corpus, sentence);
+		evaluation.uas = this.getAS(evaluation.predictedTree, evaluation.goldTree, false);
+		evaluation.las = this.getAS(evaluation.predictedTree, evaluation.goldTree, true);
+		evaluation.exact = evaluation.goldTree.equals(evaluation.predictedTree);
+		return evaluation;
+	}
+	
+	private List<String> collectUnknownWords(Corpus corpus, int sentence) {
 		List<String> unknownWords = new LinkedList<String>();
-		for (Token token : sentence) {
-			if (!this.trainVocabulary.contains(token.getLemma())) {
-				unknownWords.add(token.getLemma());
+		int start = corpus.getSentenceStart(sentence);
+		for (int token = start; token < start + corpus.getSentenceLength(sentence); ++token) {
+			String lemma = corpus.getLemma(token);
+			if (!this.trainVocabulary.contains(lemma)) {
+				unknownWords.add(lemma);
 			}
 		}
 		return unknownWords;
@@ -620,41 +1027,8 @@ public class DependencyParser {
 	}
 	
 	private void initTrainVocabulary() {
-		BufferedReader trainReader = null;
 		Path trainFile = FileSystems.getDefault().getPath("data/UD_English", "en-ud-train.conllu");
-		try {
-			trainReader = Files.newBufferedReader(trainFile);
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Could not open conllu file: " + e.getMessage());
-			return;
-		}
-		
-		String line = new String();
-		while (line != null) {
-			try {
-				line = trainReader.readLine();
-				if (line == null) {
-					break;
-				}
-			} catch (IOException e) {
-				System.err.println("Failed to read word " + e.getMessage());
-				continue;
-			}
-			if (line.isEmpty() || line.charAt(0) == '#') {
-				continue;
-			}
-			String[] parts = line.split("\t");
-			Token token = new Token(parts, 0);
-			this.trainVocabulary.add(token.getLemma());
-		}
-		
-		try {
-			trainReader.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Failed to close file: " + e.getMessage());
-		}
+		this.trainVocabulary.addAll(this.loadCorpus(trainFile, false).getLemmas());
 	}
 	
 	private List<String> getEmbeddingLabels(String choice) {
@@ -727,12 +1101,21 @@ public class DependencyParser {
 		}
 	}
 	
+	/**
+	 * @return Id of key or 0 if it is unknown
+	 */
+	static int getId(Map<String, Integer> ids, String key) {
+		Integer id = ids.get(key);
+		return (null == id) ? 0 : id;
+	}
+	
 	private void initializeArcStandard() {
-		this.arcStandard = new ArcStandard(this.labelsList);
+		this.arcStandard = new ArcStandard(this.labelsList, DependencyParser.getId(this.reverseVocabulary, "ROOT"));
 	}
 	
 	private void initializeNeuralNetwork() {
-		this.network = new NeuralNetwork(18, 18, 12,
+		this.network = new NeuralNetwork(this.featureExtractor.getWordFeaturesCount(),
+				this.featureExtractor.getTagFeaturesCount(), this.featureExtractor.getLabelFeaturesCount(),
 				this.vocabulary.size(), this.tags.size(), this.labels.size(),
 				200, 2*this.labels.size()+1, 50);
 //		this.jnetwork = new NeuralNetworkJBLAS(18, 18, 12,
@@ -741,7 +1124,6 @@ public class DependencyParser {
 	}
 	
 	private void train(List<TrainingExample> trainData, List<TrainingExample> validData, Path modelFile) {
-		TrainingExample[] randomAccessData = trainData.toArray(new TrainingExample[0]);
 		int[] indices = MatrixOperations.initializeIndices(trainData.size());
 		int iterations = 1;
 		double prevTrainError = Double.POSITIVE_INFINITY;
@@ -754,7 +1136,7 @@ public class DependencyParser {
 			long start = System.currentTimeMillis();
 			System.out.println("Starting iteration " + iterations);
 			System.out.flush();
-			this.network.trainIteration(randomAccessData, indices);
+			this.network.trainIteration(trainData, indices);
 			System.out.println("Iteration took: " + (System.currentTimeMillis() - start) + " milliseconds");
 			System.out.flush();
 			start = System.currentTimeMillis();
@@ -769,6 +1151,7 @@ public class DependencyParser {
 			this.serialize(modelFile);
 			++iterations;
 		} while (iterations < 8 || trainError > DependencyParser.convergenceThreshold || !this.hasConverged(prevTrainError, trainError, prevValidError, validError));
+		this.setClassifier(new InferenceNetwork(this.network));
 	}
 	
 	private boolean hasConverged(double prevTrainError, double trainError,
@@ -776,26 +1159,6 @@ public class DependencyParser {
 		return (prevTrainError > trainError) && (prevValidError < validError);
 	}
 	
-	private TrainingExample getTrainingExample(String line) {
-		String[] rawExample = line.split(",");
-		int[] wordInputs = new int[18];
-		for (int i = 0; i < 18; ++i) {
-			wordInputs[i] = Integer.parseInt(rawExample[i]);
-		}
-		int[] tagInputs = new int[18];
-		int offset = 18;
-		for (int i = 0; i < 18; ++i) {
-			tagInputs[i] = Integer.parseInt(rawExample[offset + i]);
-		}
-		int[] labelInputs = new int[12];
-		offset += 18;
-		for (int i = 0; i < 12; ++i) {
-			labelInputs[i] = Integer.parseInt(rawExample[offset + i]);
-		}
-		int output = Integer.parseInt(rawExample[offset + 12]);
-		return new TrainingExample(wordInputs, tagInputs, labelInputs, output);
-	}
-	
 	private void serialize(Path modelFile) {
 		try {
 			OutputStream fileOut = Files.newOutputStream(modelFile);
@@ -833,221 +1196,139 @@ public class DependencyParser {
 	}
 	
 	private double getAS(DependencyTree tree, DependencyTree goldTree, boolean labeled) {
-		int correct = 0;
-		for (Arc arc : tree) {
-			if (goldTree.hasArc(arc, labeled)) {
-				++correct;
-			}
-		}
+		int correct = tree.countMatchingArcs(goldTree, labeled);
 		return (double) 100 * correct / (double) goldTree.size();
 	}
 	
-	private void generateData(Path inputFile, Path outputFile, boolean training) {
-		this.openFile(inputFile);
-		PrintWriter writer = null;
-		try {
-			writer = new PrintWriter(outputFile.toFile(), "UTF-8");
-			writer.println(DependencyParser.header);
-			while (this.hasNextSentence()) {
-				List<Token> parsedSentence = this.tokenizeNextSentence();
-				DependencyTree dTree = this.getSentenceDependencyTree(parsedSentence);
-				dTree.sort();
-				this.saveOracleDependencyTreeParse(parsedSentence, dTree, writer);
+	/**
+	 * Run the oracle over every sentence of the corpus and keep the examples in memory.
+	 * Blocks of sentences are parsed on the common fork-join pool and added in
+	 * corpus order, at most two blocks per pool thread are in flight.
+	 */
+	private ExampleRecords generateExamples(final Corpus corpus) {
+		ExampleRecords examples = new ExampleRecords(this.featureExtractor.getWordFeaturesCount(),
+				this.featureExtractor.getTagFeaturesCount(), this.featureExtractor.getLabelFeaturesCount());
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int blockSize = Math.max(64, corpus.getSentencesCount() / (4*pool.getParallelism()) + 1);
+		Deque<ForkJoinTask<int[][]>> pending = new ArrayDeque<ForkJoinTask<int[][]>>();
+		int nextSentence = 0;
+		while (nextSentence < corpus.getSentencesCount() || !pending.isEmpty()) {
+			while (pending.size() < 2*pool.getParallelism() && nextSentence < corpus.getSentencesCount()) {
+				final int from = nextSentence;
+				final int to = Math.min(from + blockSize, corpus.getSentencesCount());
+				pending.add(pool.submit(new Callable<int[][]>() {
+					public int[][] call() {
+						int[][] records = new int[to - from][];
+						for (int sentence = from; sentence < to; ++sentence) {
+							DependencyTree dTree = corpus.getDependencyTree(sentence);
+							Configuration c = DependencyParser.this.arcStandard.initialConfiguration(corpus, sentence);
+							records[sentence - from] = DependencyParser.this.getOracleRecords(c, dTree);
+						}
+						return records;
+					}
+				}));
+				nextSentence = to;
 			}
-		} catch (FileNotFoundException | UnsupportedEncodingException e) {
-			System.err.println("Could not open file for writing data!" + " " + e.getMessage());
-		} finally {
-			if (writer != null) {
-				writer.close();
+			for (int[] records : pending.poll().join()) {
+				examples.addRecords(records, 0, records.length);
 			}
 		}
+		return examples;
 	}
 	
-	private List<TrainingExample> getExamples(Path examplesFile) {
-		List<TrainingExample> examples = new LinkedList<TrainingExample>();
-		try {
-			BufferedReader reader = Files.newBufferedReader(examplesFile);
-			//skip header
-			String line = reader.readLine();
-			while ((line = reader.readLine()) != null) {
-				TrainingExample example = this.getTrainingExample(line);
-				examples.add(example);
-			}
-			reader.close();
+	/**
+	 * Save examples to an ExampleFile that getExamples can open
+	 */
+	private void writeExamples(ExampleRecords examples, Path outputFile) {
+		try (ExampleFile.Writer writer = ExampleFile.create(outputFile, this.featureExtractor.getWordFeaturesCount(),
+				this.featureExtractor.getTagFeaturesCount(), this.featureExtractor.getLabelFeaturesCount(), this.getVocabularyVersion(), this.getMaxId())) {
+			examples.writeTo(writer);
 		} catch (IOException e) {
 			e.printStackTrace();
-			System.err.println("Could not open conllu file: " + examplesFile + " " + e.getMessage());
+			System.err.println("Could not write data to " + outputFile + " " + e.getMessage());
 		}
-		return examples;
 	}
 	
-	private int[] listToArray(List<Integer> list) {
-		int[] array = new int[list.size()];
-		int index = -1;
-		for (int number : list) {
-			array[++index] = number;
+	/**
+	 * @return Examples of the file, empty if it can not be read or was built
+	 * with another feature template or vocabulary
+	 */
+	private List<TrainingExample> getExamples(Path examplesFile) {
+		ExampleFile examples;
+		try {
+			examples = ExampleFile.open(examplesFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Could not open example file: " + examplesFile + " " + e.getMessage());
+			return Collections.<TrainingExample>emptyList();
+		}
+		if (examples.getWordFeaturesCount() != this.featureExtractor.getWordFeaturesCount()
+				|| examples.getTagFeaturesCount() != this.featureExtractor.getTagFeaturesCount()
+				|| examples.getLabelFeaturesCount() != this.featureExtractor.getLabelFeaturesCount()) {
+			System.err.println("Examples of " + examplesFile + " do not match the feature template: "
+							 + examples.getWordFeaturesCount() + "/" + examples.getTagFeaturesCount() + "/" + examples.getLabelFeaturesCount()
+							 + " vs " + this.featureExtractor.getWordFeaturesCount() + "/" + this.featureExtractor.getTagFeaturesCount()
+							 + "/" + this.featureExtractor.getLabelFeaturesCount());
+			return Collections.<TrainingExample>emptyList();
+		}
+		if (examples.getVocabularyVersion() != this.getVocabularyVersion()) {
+			System.err.println("Examples of " + examplesFile + " were built with another vocabulary");
+			return Collections.<TrainingExample>emptyList();
 		}
-		return array;
-	}
-	
-	private List<Integer> getFeatures(Configuration c) {
-		return this.getConfigurationState(c).getFeatures();
+		return examples;
 	}
 	
-	private ConfigurationState getConfigurationState(Configuration c) {
-		ConfigurationState state = new ConfigurationState();
-		int stackIndex = 0;
-		while (stackIndex < 3) {
-			int sentenceIndex = c.getStack(stackIndex);
-			this.addWordToState(c, state, sentenceIndex, false);
-			if (stackIndex < 2) {
-				if (sentenceIndex < 0) {
-					state.addWords(Collections.nCopies(6, 0));
-					state.addPOStags(Collections.nCopies(6, 0));
-					state.addLabels(Collections.nCopies(6, 0));
-				} else {
-					this.addChildren(c, sentenceIndex, true, state);
-					this.addChildren(c, sentenceIndex, false, state);
-				}
+	/**
+	 * @return Fingerprint of the vocabulary, tags and labels (and so of the transitions)
+	 * the ids of the examples depend on
+	 */
+	private long getVocabularyVersion() {
+		long version = this.labelsList.hashCode();
+		for (Map<String, Integer> ids : Arrays.asList(this.reverseVocabulary, this.reverseTags, this.reverseLabels)) {
+			//independent of the iteration order
+			long hash = ids.size();
+			for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+				hash += 0x9E3779B97F4A7C15L*(31L*entry.getKey().hashCode() + entry.getValue());
 			}
-			++stackIndex;
-		}
-		int bufferIndex = 0;
-		while (bufferIndex < 3) {
-			int sentenceIndex = c.getBuffer(bufferIndex);
-			this.addWordToState(c, state, sentenceIndex, false);
-			++bufferIndex;
+			version = 31*version + hash;
 		}
-		return state;
+		return version;
 	}
 	
-	private void addChildren(Configuration c, int word, boolean left, ConfigurationState state) {
-		int childCount = 1;
-		while (childCount < 3) {
-			int child;
-			if (left) {
-				child = c.getLeftChild(word, childCount);
-			} else {
-				child = c.getRightChild(word, childCount);
+	/**
+	 * @return Highest word, tag, label or transition id an example can hold
+	 */
+	private int getMaxId() {
+		int maxId = 2*this.labelsList.size();
+		for (Map<String, Integer> ids : Arrays.asList(this.reverseVocabulary, this.reverseTags, this.reverseLabels)) {
+			for (Integer id : ids.values()) {
+				maxId = Math.max(maxId, id);
 			}
-			this.addWordToState(c, state, child, true);
-			if (childCount == 1) {
-				if (child < 0) {
-					this.addWordToState(c, state, -1, true);
-				} else {
-					int grandChild;
-					if (left) {
-						grandChild = c.getLeftChild(child, childCount);
-					} else {
-						grandChild = c.getRightChild(child, childCount);
-					}
-					this.addWordToState(c, state, grandChild, true);					
-				}
-			}
-			++childCount;
 		}
+		return maxId;
 	}
 	
-	private void addWordToState(Configuration c, ConfigurationState state, int word, boolean addLabel) {
-		if (word < 0) {
-			state.addWord(0);
-			state.addPOStag(0);
-			if (addLabel) {
-				state.addLabel(0);
-			}
-		} else {
-			Integer wordId = this.reverseVocabulary.get(c.getWord(word));
-			if (null != wordId) {
-				state.addWord(wordId);
-			} else {
-				state.addWord(0);
-			}
-			Integer tagId = this.reverseTags.get(c.getPOS(word));
-			if (null != tagId) {
-				state.addPOStag(tagId);
-			} else {
-				state.addPOStag(0);
-			}
-			if (addLabel) {
-				Integer labelId = this.reverseLabels.get(c.getLabel(word));
-				if (null != labelId) {
-					state.addLabel(labelId);
-				} else {
-					state.addLabel(0);
-				}
-			}
-		}
+	/**
+	 * @return Workspace of the calling thread for the current classifier
+	 */
+	private NetworkWorkspace getWorkspace() {
+		NetworkWorkspace workspace = this.workspaces.get();
+		if (workspace == null) {
+			workspace = this.classifier.createWorkspace();
+			this.workspaces.set(workspace);
+		}
+		return workspace;
 	}
 	
-	private class ConfigurationState {
-		private List<Integer> words;
-		private List<Integer> postags;
-		private List<Integer> labels;
-		
-		public ConfigurationState() {
-			this.words = new LinkedList<Integer>();
-			this.postags = new LinkedList<Integer>();
-			this.labels = new LinkedList<Integer>();
-		}
-		
-		public void addWord(int word) {
-			this.words.add(word);
-		}
-		
-		public void addWords(List<Integer> words) {
-			this.words.addAll(words);
-		}
-		
-		public void addPOStag(int postag) {
-			this.postags.add(postag);
-		}
-		
-		public void addPOStags(List<Integer> postags) {
-			this.postags.addAll(postags);
-		}
-		
-		public void addLabel(int label) {
-			this.labels.add(label);
-		}
-		
-		public void addLabels(List<Integer> labels) {
-			this.labels.addAll(labels);
-		}
-		
-		public List<Integer> getFeatures() {
-			List<Integer> features = new LinkedList<Integer>();
-			features.addAll(this.words);
-			features.addAll(this.postags);
-			features.addAll(this.labels);
-			return features;
-		}
-		
-		public List<Integer> getWords() {
-			return this.words;
-		}
-		
-		public List<Integer> getTags() {
-			return this.postags;
-		}
-		
-		public List<Integer> getLabels() {
-			return this.labels;
-		}
-		
-		@Override
-		public String toString() {
-			String result = "";
-			for (int word : this.words) {
-				result += String.valueOf(word) + ",";
-			}
-			for (int postag : this.postags) {
-				result += String.valueOf(postag) + ",";
-			}
-			for (int label : this.labels) {
-				result += String.valueOf(label) + ",";
-			}
-			return result;
-		}
+	private class SentenceEvaluation {
+		private int length;
+		private List<String> unknownWords;
+		private DependencyTree goldTree;
+		private DependencyTree predictedTree;
+		private boolean projective;
+		private boolean exact;
+		private double uas;
+		private double las;
 	}
 	
 	public static void main(String[] args) {
@@ -1083,14 +1364,82 @@ public class DependencyParser {
 			break;
 		case "--test":
 			if (args.length < 3) {
-				System.out.println("Usage: java DependencyParser --test <test file> <model file>");
+				System.out.println("Usage: java DependencyParser --test <test file> <model file> [<precomputed pairs>] [double/float/int8] [<threads>] [<training file>]");
 				return;
 			}
 			Path testFile = FileSystems.getDefault().getPath("data/UD_English", args[1]);
 			modelFile = FileSystems.getDefault().getPath("data", args[2]);
+			if (args.length > 3) {
+				//the training file is only read when data/trainingdata.bin can not be used
+				Path precomputeFile = (args.length > 6) ? FileSystems.getDefault().getPath("data/UD_English", args[6]) : null;
+				parser.setPrecomputedCount(Integer.parseInt(args[3]), precomputeFile);
+			}
+			parser.deserializeVocabulary(vocab);
+			parser.loadModel(modelFile);
+			//double is the classifier of loadModel, with its precomputed pairs
+			if (args.length > 4 && !args[4].equals("double")) {
+				TransitionClassifier classifier = parser.createClassifier(args[4]);
+				if (classifier == null) {
+					System.out.println("Unknown model type: " + args[4]);
+					return;
+				}
+				parser.setClassifier(classifier);
+			}
+			int threadsCount = (args.length > 5) ? Integer.parseInt(args[5]) : 1;
+			parser.test(testFile, threadsCount);
+			break;
+		case "--compare":
+			if (args.length < 4 || (!args[3].equals("float") && !args[3].equals("int8"))) {
+				System.out.println("Usage: java DependencyParser --compare <test file> <model file> <float/int8> [<batch size>]");
+				return;
+			}
+			testFile = FileSystems.getDefault().getPath("data/UD_English", args[1]);
+			modelFile = FileSystems.getDefault().getPath("data", args[2]);
 			parser.deserializeVocabulary(vocab);
 			parser.loadModel(modelFile);
-			parser.test(testFile);
+			parser.compareClassifiers(testFile, parser.createClassifier(args[3]));
+			int batchSize = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+			parser.compareModels(testFile, new String[] {"double", args[3]}, batchSize);
+			break;
+		case "--nulls":
+			if (args.length < 2) {
+				System.out.println("Usage: java DependencyParser --nulls <conllu file>");
+				return;
+			}
+			parser.deserializeVocabulary(vocab);
+			parser.measureNullSlots(FileSystems.getDefault().getPath("data/UD_English", args[1]));
+			break;
+		case "--features":
+			if (args.length < 2) {
+				System.out.println("Usage: java DependencyParser --features <conllu file>");
+				return;
+			}
+			parser.deserializeVocabulary(vocab);
+			parser.checkIncrementalFeatures(FileSystems.getDefault().getPath("data/UD_English", args[1]));
+			break;
+		case "--check":
+			if (args.length < 3) {
+				System.out.println("Usage: java DependencyParser --check <conllu file> <model file> [double/float/int8] [<threads>]");
+				return;
+			}
+			modelFile = FileSystems.getDefault().getPath("data", args[2]);
+			parser.deserializeVocabulary(vocab);
+			parser.loadModel(modelFile);
+			if (args.length > 3) {
+				TransitionClassifier classifier = parser.createClassifier(args[3]);
+				if (classifier == null) {
+					System.out.println("Unknown model type: " + args[3]);
+					return;
+				}
+				parser.setClassifier(classifier);
+			}
+			int checkThreads = (args.length > 4) ? Integer.parseInt(args[4]) : 4;
+			parser.checkThreadSafety(FileSystems.getDefault().getPath("data/UD_English", args[1]), checkThreads);
+			break;
+		case "--kernels":
+			int maxLength = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+			System.out.println("Kernels: " + MatrixOperations.getKernelsName());
+			System.out.println("Max difference from scalar: " + MatrixOperations.compareKernels(maxLength));
 			break;
 		case "--emb":
 			if (args.length < 3) {
@@ -1,62 +1,301 @@
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class DependencyTree extends LinkedList<Arc> {
+/**
+ * Dependency tree stored by dependent: heads[d] is the head of the word with
+ * sentence index d (-1 when it has none yet) and labels[d] the id of its label.
+ * Lookups by dependent are O(1) and no Arc objects are kept - they are only
+ * created when iterating, in (head, dependent) order.
+ * The number of children of every head is kept up to date by add, so the
+ * oracle can tell in O(1) whether a word still waits for children.
+ */
+public class DependencyTree implements Iterable<Arc> {
 
-	private static final long serialVersionUID = 4099018308379880189L;
-	
-	public void sort() {
-		Collections.sort(this);
+	/**
+	 * label ids shared by all trees so trees can be compared by id.
+	 * labelNames is copied on write under labelsLock, so reading a name takes no lock,
+	 * an id is only put in labelIds once its name is published
+	 */
+	private static final Map<String, Integer> labelIds = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] labelNames = new String[0];
+	private static final Object labelsLock = new Object();
+
+	private int[] heads;
+	private int[] labels;
+	private int[] childrenCounts;
+	private int size;
+	/**
+	 * cached result of isProjective, null after every change
+	 */
+	private Boolean projective;
+
+	public DependencyTree() {
+		this(16);
 	}
-	
+
+	/**
+	 * @param capacity Expected highest sentence index + 1 (grows when exceeded)
+	 */
+	public DependencyTree(int capacity) {
+		this.heads = new int[Math.max(capacity, 1)];
+		this.labels = new int[this.heads.length];
+		this.childrenCounts = new int[this.heads.length];
+		Arrays.fill(this.heads, -1);
+		this.size = 0;
+	}
+
+	public static int getLabelId(String label) {
+		Integer id = DependencyTree.labelIds.get(label);
+		if (null != id) {
+			return id;
+		}
+		synchronized (DependencyTree.labelsLock) {
+			id = DependencyTree.labelIds.get(label);
+			if (null == id) {
+				String[] labelNames = Arrays.copyOf(DependencyTree.labelNames, DependencyTree.labelNames.length + 1);
+				id = labelNames.length - 1;
+				labelNames[id] = label;
+				DependencyTree.labelNames = labelNames;
+				DependencyTree.labelIds.put(label, id);
+			}
+			return id;
+		}
+	}
+
+	public static String getLabelName(int labelId) {
+		return DependencyTree.labelNames[labelId];
+	}
+
+	public boolean add(Arc arc) {
+		this.add(arc.getHeadSentenceIndex(), arc.getDependentSentenceIndex(), DependencyTree.getLabelId(arc.getLabel()));
+		return true;
+	}
+
+	/**
+	 * Set the head of dependent, replacing a previous one
+	 */
+	public void add(int head, int dependent, int labelId) {
+		int highest = Math.max(head, dependent);
+		if (highest >= this.heads.length) {
+			int oldLength = this.heads.length;
+			int newLength = Math.max(highest + 1, 2*oldLength);
+			this.heads = Arrays.copyOf(this.heads, newLength);
+			this.labels = Arrays.copyOf(this.labels, newLength);
+			this.childrenCounts = Arrays.copyOf(this.childrenCounts, newLength);
+			Arrays.fill(this.heads, oldLength, newLength, -1);
+		}
+		if (this.heads[dependent] < 0) {
+			++this.size;
+		} else {
+			--this.childrenCounts[this.heads[dependent]];
+		}
+		++this.childrenCounts[head];
+		this.heads[dependent] = head;
+		this.labels[dependent] = labelId;
+		this.projective = null;
+	}
+
+	/**
+	 * @return Head of dependent or -1 if it has none
+	 */
+	public int getHead(int dependent) {
+		if (dependent < 0 || dependent >= this.heads.length) {
+			return -1;
+		}
+		return this.heads[dependent];
+	}
+
+	/**
+	 * @return Label id of the arc to dependent, only meaningful if it has a head
+	 */
+	public int getLabelId(int dependent) {
+		return this.labels[dependent];
+	}
+
+	public String getLabel(int dependent) {
+		return DependencyTree.getLabelName(this.labels[dependent]);
+	}
+
+	/**
+	 * @return Number of arcs
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return 0 == this.size;
+	}
+
 	public List<Integer> getSortedChildren(int head) {
 		List<Integer> children = new LinkedList<Integer>();
-		for (Arc arc : this) {
-			if (head == arc.getHeadSentenceIndex()) {
-				children.add(arc.getDependentSentenceIndex());
+		for (int dependent = 0; dependent < this.heads.length; ++dependent) {
+			if (head == this.heads[dependent]) {
+				children.add(dependent);
 			}
 		}
-		Collections.sort(children);
 		return children;
 	}
+
+	public int countChildren(int head) {
+		if (head < 0 || head >= this.childrenCounts.length) {
+			return 0;
+		}
+		return this.childrenCounts[head];
+	}
+
+	/**
+	 * A tree is projective when no two arcs cross, i.e. the spans of the arcs
+	 * (ROOT arcs included) are nested or disjoint. O(n log n), cached until the next add.
+	 */
+	public boolean isProjective() {
+		if (null == this.projective) {
+			this.projective = this.computeProjective();
+		}
+		return this.projective;
+	}
 	
-	public boolean hasArc(Arc arc, boolean labeled) {
-		for (Arc a : this) {
-			int match = labeled ? a.compareTo(arc) : a.partialCompareTo(arc);
-			if (0 == match) {
-				return true;
+	private boolean computeProjective() {
+		//spans sorted by left end and then by decreasing right end,
+		//so a span always comes after the spans that contain it
+		long length = this.heads.length;
+		long[] spans = new long[this.size];
+		int count = 0;
+		for (int dependent = 0; dependent < this.heads.length; ++dependent) {
+			int head = this.heads[dependent];
+			if (head >= 0) {
+				int left = Math.min(head, dependent);
+				int right = Math.max(head, dependent);
+				spans[count++] = left*length + (length - 1 - right);
+			}
+		}
+		Arrays.sort(spans, 0, count);
+		//right ends of the open spans, innermost on top
+		int[] open = new int[count];
+		int openCount = 0;
+		for (int span = 0; span < count; ++span) {
+			int left = (int) (spans[span] / length);
+			int right = (int) (length - 1 - spans[span] % length);
+			while (openCount > 0 && open[openCount - 1] <= left) {
+				--openCount;
 			}
+			if (openCount > 0 && open[openCount - 1] < right) {
+				//starts inside the top span and ends outside of it
+				return false;
+			}
+			open[openCount++] = right;
 		}
-		return false;
+		return true;
 	}
 	
+	public boolean hasArc(Arc arc, boolean labeled) {
+		int dependent = arc.getDependentSentenceIndex();
+		if (this.getHead(dependent) != arc.getHeadSentenceIndex()) {
+			return false;
+		}
+		return !labeled || this.getLabel(dependent).equals(arc.getLabel());
+	}
+
+	/**
+	 * @return Number of arcs of this tree that are also in other
+	 */
+	public int countMatchingArcs(DependencyTree other, boolean labeled) {
+		int matching = 0;
+		for (int dependent = 0; dependent < this.heads.length; ++dependent) {
+			int head = this.heads[dependent];
+			if (head < 0 || head != other.getHead(dependent)) {
+				continue;
+			}
+			if (!labeled || this.labels[dependent] == other.labels[dependent]) {
+				++matching;
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * Arcs ordered by head and then by dependent, like sorted Arcs
+	 */
+	@Override
+	public Iterator<Arc> iterator() {
+		//counting sort of the dependents by head, dependents stay in increasing order
+		int[] starts = new int[this.heads.length + 2];
+		for (int head : this.heads) {
+			++starts[head + 2];
+		}
+		for (int head = 1; head < starts.length; ++head) {
+			starts[head] += starts[head - 1];
+		}
+		final int[] order = new int[this.heads.length];
+		for (int dependent = 0; dependent < this.heads.length; ++dependent) {
+			order[starts[this.heads[dependent] + 1]++] = dependent;
+		}
+		//dependents without a head come first
+		final int first = this.heads.length - this.size;
+		return new Iterator<Arc>() {
+			private int next = first;
+
+			public boolean hasNext() {
+				return this.next < order.length;
+			}
+
+			public Arc next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int dependent = order[this.next++];
+				return new Arc(DependencyTree.this.heads[dependent], dependent, DependencyTree.this.getLabel(dependent));
+			}
+		};
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (!(o instanceof DependencyTree)) {
 			return false;
 		}
 		DependencyTree other = (DependencyTree)o;
-		Iterator<Arc> thisIt = this.iterator();
-		Iterator<Arc> otherIt = other.iterator();
-		while (thisIt.hasNext() && otherIt.hasNext()) {
-			Arc thisArc = thisIt.next();
-			Arc otherArc = otherIt.next();
-			if (0 != thisArc.compareTo(otherArc)) {
+		if (this.size != other.size) {
+			return false;
+		}
+		int length = Math.max(this.heads.length, other.heads.length);
+		for (int dependent = 0; dependent < length; ++dependent) {
+			int head = this.getHead(dependent);
+			if (head != other.getHead(dependent)) {
+				return false;
+			}
+			if (head >= 0 && this.labels[dependent] != other.labels[dependent]) {
 				return false;
 			}
 		}
-		return !thisIt.hasNext() && !otherIt.hasNext();
+		return true;
 	}
-	
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int dependent = 0; dependent < this.heads.length; ++dependent) {
+			if (this.heads[dependent] >= 0) {
+				hash = 31*hash + dependent;
+				hash = 31*hash + this.heads[dependent];
+				hash = 31*hash + this.labels[dependent];
+			}
+		}
+		return hash;
+	}
+
 	@Override
 	public String toString() {
-		String result = "";
+		StringBuilder result = new StringBuilder();
 		for (Arc arc : this) {
-			result += arc;
-			result += "\n";
+			result.append(arc);
+			result.append("\n");
 		}
-		return result;
+		return result.toString();
 	}
 }
@@ -0,0 +1,264 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Training examples in a fixed-width binary file, read through a memory mapping.
+ * Layout, little endian:
+ * - header of HEADER_SIZE bytes: MAGIC, FORMAT, word, tag and label features count,
+ *   the width of an id in bytes, the vocabulary version (long) and the examples count (long)
+ * - one record per example: the word, tag and label feature ids followed by the transition id,
+ *   unsigned 16 bit ids when every id fits in them, 32 bit ids otherwise
+ *
+ * Opening maps the file and reads the header, examples are decoded from the mapping
+ * when they are asked for, so nothing is parsed up front. Files larger than a mapping
+ * window are mapped in windows of whole records.
+ * Read-only, can be shared by threads.
+ */
+public class ExampleFile extends AbstractList<TrainingExample> implements RandomAccess {
+
+	private static final int MAGIC = 0x45584D50;
+	private static final int FORMAT = 1;
+	private static final int HEADER_SIZE = 64;
+
+	private final int wordFeaturesCount;
+	private final int tagFeaturesCount;
+	private final int labelFeaturesCount;
+	private final long vocabularyVersion;
+	private final int size;
+
+	/**
+	 * ids per record and records per mapping window
+	 */
+	private final int recordLength;
+	private final int windowRecords;
+	/**
+	 * the windows of 32 bit files, or of 16 bit files
+	 */
+	private final IntBuffer[] intWindows;
+	private final CharBuffer[] charWindows;
+
+	private ExampleFile(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ExampleFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			//read the whole header
+		}
+		if (header.hasRemaining() || ExampleFile.MAGIC != header.getInt(0)) {
+			throw new IOException("Not an example file");
+		}
+		if (ExampleFile.FORMAT != header.getInt(4)) {
+			throw new IOException("Unsupported example file format " + header.getInt(4));
+		}
+		this.wordFeaturesCount = header.getInt(8);
+		this.tagFeaturesCount = header.getInt(12);
+		this.labelFeaturesCount = header.getInt(16);
+		int width = header.getInt(20);
+		if (2 != width && 4 != width) {
+			throw new IOException("Unsupported id width " + width);
+		}
+		this.vocabularyVersion = header.getLong(24);
+		long count = header.getLong(32);
+
+		this.recordLength = this.wordFeaturesCount + this.tagFeaturesCount + this.labelFeaturesCount + 1;
+		long recordSize = (long) width*this.recordLength;
+		if (count < 0 || count > Integer.MAX_VALUE || ExampleFile.HEADER_SIZE + count*recordSize != channel.size()) {
+			throw new IOException("Incomplete example file: " + count + " examples of " + recordSize + " bytes in " + channel.size() + " bytes");
+		}
+		this.size = (int) count;
+		this.windowRecords = (int) (Integer.MAX_VALUE / recordSize);
+		int windows = (this.size + this.windowRecords - 1) / this.windowRecords;
+		this.intWindows = (4 == width) ? new IntBuffer[windows] : null;
+		this.charWindows = (2 == width) ? new CharBuffer[windows] : null;
+		for (int window = 0; window < windows; ++window) {
+			long first = (long) window*this.windowRecords;
+			long records = Math.min(this.windowRecords, this.size - first);
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, ExampleFile.HEADER_SIZE + first*recordSize, records*recordSize)
+										.order(ByteOrder.LITTLE_ENDIAN);
+			if (4 == width) {
+				this.intWindows[window] = mapping.asIntBuffer();
+			} else {
+				this.charWindows[window] = mapping.asCharBuffer();
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException When the file can not be read or is not a complete example file
+	 */
+	public static ExampleFile open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			//mappings stay valid after the channel is closed
+			return new ExampleFile(channel);
+		}
+	}
+
+	/**
+	 * @param maxId Highest feature or transition id that will be written
+	 * @return Writer of a new example file, an existing file is replaced
+	 */
+	public static Writer create(Path file, int wordFeaturesCount, int tagFeaturesCount, int labelFeaturesCount,
+			long vocabularyVersion, int maxId) throws IOException {
+		return new Writer(file, wordFeaturesCount, tagFeaturesCount, labelFeaturesCount, vocabularyVersion, maxId);
+	}
+
+	/**
+	 * @return The example decoded from the mapping, a new instance on every call
+	 */
+	@Override
+	public TrainingExample get(int example) {
+		if (example < 0 || example >= this.size) {
+			throw new IndexOutOfBoundsException("Example " + example + " of " + this.size);
+		}
+		int window = example / this.windowRecords;
+		int offset = (example % this.windowRecords)*this.recordLength;
+		int[] wordInputs = new int[this.wordFeaturesCount];
+		int[] tagInputs = new int[this.tagFeaturesCount];
+		int[] labelInputs = new int[this.labelFeaturesCount];
+		offset = this.read(window, offset, wordInputs);
+		offset = this.read(window, offset, tagInputs);
+		offset = this.read(window, offset, labelInputs);
+		int output = (null != this.intWindows) ? this.intWindows[window].get(offset) : this.charWindows[window].get(offset);
+		return new TrainingExample(wordInputs, tagInputs, labelInputs, output);
+	}
+
+	/**
+	 * Copy ids.length ids from offset of window into ids
+	 * @return Offset after the copied ids
+	 */
+	private int read(int window, int offset, int[] ids) {
+		if (null != this.intWindows) {
+			this.intWindows[window].get(offset, ids, 0, ids.length);
+		} else {
+			CharBuffer chars = this.charWindows[window];
+			for (int i = 0; i < ids.length; ++i) {
+				ids[i] = chars.get(offset + i);
+			}
+		}
+		return offset + ids.length;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	public int getWordFeaturesCount() {
+		return this.wordFeaturesCount;
+	}
+
+	public int getTagFeaturesCount() {
+		return this.tagFeaturesCount;
+	}
+
+	public int getLabelFeaturesCount() {
+		return this.labelFeaturesCount;
+	}
+
+	public long getVocabularyVersion() {
+		return this.vocabularyVersion;
+	}
+
+	/**
+	 * Appends records to a new example file, the examples count is written by close.
+	 * Not thread-safe.
+	 */
+	public static class Writer implements Closeable {
+
+		private final FileChannel channel;
+		private final ByteBuffer header;
+		private final ByteBuffer buffer;
+		private final int recordLength;
+		private final int width;
+		private final int maxId;
+		private long count;
+
+		private Writer(Path file, int wordFeaturesCount, int tagFeaturesCount, int labelFeaturesCount,
+				long vocabularyVersion, int maxId) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			this.header = ByteBuffer.allocate(ExampleFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			this.header.putInt(0, ExampleFile.MAGIC);
+			this.header.putInt(4, ExampleFile.FORMAT);
+			this.header.putInt(8, wordFeaturesCount);
+			this.header.putInt(12, tagFeaturesCount);
+			this.header.putInt(16, labelFeaturesCount);
+			this.maxId = maxId;
+			this.width = (maxId <= Character.MAX_VALUE) ? 2 : 4;
+			this.header.putInt(20, this.width);
+			this.header.putLong(24, vocabularyVersion);
+			this.recordLength = wordFeaturesCount + tagFeaturesCount + labelFeaturesCount + 1;
+			this.buffer = ByteBuffer.allocate(Math.max(1 << 16, 4*this.recordLength)).order(ByteOrder.LITTLE_ENDIAN);
+			this.count = 0;
+			//the header is complete once the count is known
+			this.writeHeader();
+		}
+
+		/**
+		 * @param records Whole records, features followed by the transition id, in records[from..to)
+		 * @throws IllegalArgumentException When an id is negative or higher than the maxId of create,
+		 * nothing is written then
+		 */
+		public void write(int[] records, int from, int to) throws IOException {
+			if (0 != (to - from) % this.recordLength) {
+				throw new IllegalArgumentException("Not a whole number of records: " + (to - from) + " ints");
+			}
+			for (int i = from; i < to; ++i) {
+				if (records[i] < 0 || records[i] > this.maxId) {
+					throw new IllegalArgumentException("Id " + records[i] + " is not in [0, " + this.maxId + "]");
+				}
+			}
+			long written = (to - from) / this.recordLength;
+			while (from < to) {
+				int length = Math.min(to - from, this.buffer.remaining() / this.width);
+				if (0 == length) {
+					this.flush();
+					continue;
+				}
+				if (4 == this.width) {
+					this.buffer.asIntBuffer().put(records, from, length);
+				} else {
+					CharBuffer chars = this.buffer.asCharBuffer();
+					for (int i = from; i < from + length; ++i) {
+						chars.put((char) records[i]);
+					}
+				}
+				this.buffer.position(this.buffer.position() + this.width*length);
+				from += length;
+			}
+			this.count += written;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				this.flush();
+				this.writeHeader();
+			} finally {
+				this.channel.close();
+			}
+		}
+
+		private void flush() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer, this.channel.size());
+			}
+			this.buffer.clear();
+		}
+
+		private void writeHeader() throws IOException {
+			this.header.putLong(32, this.count);
+			this.header.clear();
+			while (this.header.hasRemaining()) {
+				this.channel.write(this.header, this.header.position());
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Training examples held in memory as packed records, the records of an ExampleFile:
+ * the word, tag and label feature ids followed by the transition id, one int each.
+ * Examples are decoded when they are asked for, so a stored example costs one
+ * int per id instead of a TrainingExample and its three arrays.
+ * Not thread-safe while records are added, read-only afterwards.
+ */
+public class ExampleRecords extends AbstractList<TrainingExample> implements RandomAccess {
+
+	private final int wordFeaturesCount;
+	private final int tagFeaturesCount;
+	private final int labelFeaturesCount;
+	private final int recordLength;
+
+	private int[] records;
+	private int size;
+
+	public ExampleRecords(int wordFeaturesCount, int tagFeaturesCount, int labelFeaturesCount) {
+		this.wordFeaturesCount = wordFeaturesCount;
+		this.tagFeaturesCount = tagFeaturesCount;
+		this.labelFeaturesCount = labelFeaturesCount;
+		this.recordLength = wordFeaturesCount + tagFeaturesCount + labelFeaturesCount + 1;
+		this.records = new int[1024*this.recordLength];
+		this.size = 0;
+	}
+
+	/**
+	 * @param records Whole records, features followed by the transition id, in records[from..to)
+	 */
+	public void addRecords(int[] records, int from, int to) {
+		if (0 != (to - from) % this.recordLength) {
+			throw new IllegalArgumentException("Not a whole number of records: " + (to - from) + " ints");
+		}
+		int length = this.size*this.recordLength;
+		if (length + (long) (to - from) > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Too many examples for one array: " + this.size);
+		}
+		if (length + to - from > this.records.length) {
+			long capacity = Math.max(2L*this.records.length, length + to - from);
+			this.records = Arrays.copyOf(this.records, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+		}
+		System.arraycopy(records, from, this.records, length, to - from);
+		this.size += (to - from) / this.recordLength;
+	}
+
+	/**
+	 * Write every record to an example file
+	 */
+	public void writeTo(ExampleFile.Writer writer) throws IOException {
+		writer.write(this.records, 0, this.size*this.recordLength);
+	}
+
+	/**
+	 * @return The example decoded from its record, a new instance on every call
+	 */
+	@Override
+	public TrainingExample get(int example) {
+		if (example < 0 || example >= this.size) {
+			throw new IndexOutOfBoundsException("Example " + example + " of " + this.size);
+		}
+		int offset = example*this.recordLength;
+		int[] wordInputs = Arrays.copyOfRange(this.records, offset, offset + this.wordFeaturesCount);
+		offset += this.wordFeaturesCount;
+		int[] tagInputs = Arrays.copyOfRange(this.records, offset, offset + this.tagFeaturesCount);
+		offset += this.tagFeaturesCount;
+		int[] labelInputs = Arrays.copyOfRange(this.records, offset, offset + this.labelFeaturesCount);
+		offset += this.labelFeaturesCount;
+		return new TrainingExample(wordInputs, tagInputs, labelInputs, this.records[offset]);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+}
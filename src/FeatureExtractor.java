@@ -0,0 +1,263 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Feature extractor compiled from a feature template, a comma separated list of
+ * features like "s1,lc1(s1),rc1(rc1(s2)),b1.t,lc2(s1).l":
+ * sN is the N-th word from the top of the stack, bN the N-th word of the buffer,
+ * lcN(x) and rcN(x) the N-th leftmost and rightmost child of x, and the suffixes
+ * .t and .l select the POS tag and the label instead of the word.
+ *
+ * Every feature is compiled into a slot program (the base word and the child
+ * steps to walk from it). extract fills the feature ids of a configuration into
+ * one int array without boxing or allocating, word ids first, then tag ids, then
+ * label ids, each in template order. Missing words give 0.
+ * Immutable, one instance can be shared by all parsing threads.
+ */
+public class FeatureExtractor {
+
+	/**
+	 * the features of Chen and Manning (2014)
+	 */
+	public static final String DEFAULT_TEMPLATE = //words
+												  "s1,lc1(s1),lc1(lc1(s1)),lc2(s1),rc1(s1),rc1(rc1(s1)),rc2(s1),"
+												+ "s2,lc1(s2),lc1(lc1(s2)),lc2(s2),rc1(s2),rc1(rc1(s2)),rc2(s2),"
+												+ "s3,b1,b2,b3,"
+												  //corresponding POS tags
+												+ "s1.t,lc1(s1).t,lc1(lc1(s1)).t,lc2(s1).t,rc1(s1).t,rc1(rc1(s1)).t,rc2(s1).t,"
+												+ "s2.t,lc1(s2).t,lc1(lc1(s2)).t,lc2(s2).t,rc1(s2).t,rc1(rc1(s2)).t,rc2(s2).t,"
+												+ "s3.t,b1.t,b2.t,b3.t,"
+												  //corresponding arcs
+												  //except the 3 words on the stack and the 3 on the buffer since they don't have eny yet
+												+ "lc1(s1).l,lc1(lc1(s1)).l,lc2(s1).l,rc1(s1).l,rc1(rc1(s1)).l,rc2(s1).l,"
+												+ "lc1(s2).l,lc1(lc1(s2)).l,lc2(s2).l,rc1(s2).l,rc1(rc1(s2)).l,rc2(s2).l";
+
+	private static final Pattern BASE = Pattern.compile("([sb])([1-9][0-9]*)");
+	private static final Pattern CHILD = Pattern.compile("([lr])c([1-9][0-9]*)\\((.*)\\)");
+
+	static final int WORD = 0;
+	static final int TAG = 1;
+	static final int LABEL = 2;
+
+	private static final int STACK = 0;
+	private static final int BUFFER = 1;
+
+	private final int wordFeaturesCount;
+	private final int tagFeaturesCount;
+	private final int labelFeaturesCount;
+
+	/**
+	 * the distinct base words (stack or buffer and 0-based position)
+	 */
+	private final int[] baseTypes;
+	private final int[] basePositions;
+	/**
+	 * slots read from each base and whether any of them walks to children
+	 */
+	private final int[][] baseSlots;
+	private final boolean[] baseChildSlots;
+
+	/**
+	 * per slot: base index, WORD, TAG or LABEL, and its child steps
+	 * steps[stepsStart[slot]..stepsStart[slot+1]) from the base outwards,
+	 * +N for the N-th leftmost and -N for the N-th rightmost child
+	 */
+	private final int[] slotBases;
+	private final int[] slotKinds;
+	private final int[] stepsStart;
+	private final int[] steps;
+
+	private final String[] names;
+
+	/**
+	 * @throws IllegalArgumentException When the template can not be parsed
+	 */
+	public FeatureExtractor(String template) {
+		List<String> features = new ArrayList<String>();
+		for (String feature : template.split(",")) {
+			if (!feature.trim().isEmpty()) {
+				features.add(feature.trim());
+			}
+		}
+		//slots are grouped by kind, the network takes words, tags and labels separately
+		List<String> names = new ArrayList<String>(features.size());
+		int[] counts = new int[3];
+		for (int kind = FeatureExtractor.WORD; kind <= FeatureExtractor.LABEL; ++kind) {
+			for (String feature : features) {
+				if (FeatureExtractor.getKind(feature) == kind) {
+					names.add(feature);
+					++counts[kind];
+				}
+			}
+		}
+		this.wordFeaturesCount = counts[FeatureExtractor.WORD];
+		this.tagFeaturesCount = counts[FeatureExtractor.TAG];
+		this.labelFeaturesCount = counts[FeatureExtractor.LABEL];
+		this.names = names.toArray(new String[0]);
+
+		List<String> bases = new ArrayList<String>();
+		List<Integer> steps = new ArrayList<Integer>();
+		this.slotBases = new int[this.names.length];
+		this.slotKinds = new int[this.names.length];
+		this.stepsStart = new int[this.names.length + 1];
+		for (int slot = 0; slot < this.names.length; ++slot) {
+			String feature = this.names[slot];
+			this.slotKinds[slot] = FeatureExtractor.getKind(feature);
+			String path = (FeatureExtractor.WORD == this.slotKinds[slot]) ? feature : feature.substring(0, feature.length() - 2);
+			String base = FeatureExtractor.compilePath(path, steps, feature);
+			if (!bases.contains(base)) {
+				bases.add(base);
+			}
+			this.slotBases[slot] = bases.indexOf(base);
+			this.stepsStart[slot + 1] = steps.size();
+		}
+		this.steps = new int[steps.size()];
+		for (int step = 0; step < this.steps.length; ++step) {
+			this.steps[step] = steps.get(step);
+		}
+		this.baseTypes = new int[bases.size()];
+		this.basePositions = new int[bases.size()];
+		for (int base = 0; base < this.baseTypes.length; ++base) {
+			Matcher matcher = FeatureExtractor.BASE.matcher(bases.get(base));
+			matcher.matches();
+			this.baseTypes[base] = matcher.group(1).equals("s") ? FeatureExtractor.STACK : FeatureExtractor.BUFFER;
+			this.basePositions[base] = Integer.parseInt(matcher.group(2)) - 1;
+		}
+		this.baseSlots = new int[bases.size()][];
+		this.baseChildSlots = new boolean[bases.size()];
+		for (int base = 0; base < this.baseSlots.length; ++base) {
+			List<Integer> slots = new ArrayList<Integer>();
+			for (int slot = 0; slot < this.names.length; ++slot) {
+				if (base == this.slotBases[slot]) {
+					slots.add(slot);
+					this.baseChildSlots[base] |= this.stepsStart[slot + 1] > this.stepsStart[slot];
+				}
+			}
+			this.baseSlots[base] = new int[slots.size()];
+			for (int i = 0; i < slots.size(); ++i) {
+				this.baseSlots[base][i] = slots.get(i);
+			}
+		}
+	}
+
+	private static int getKind(String feature) {
+		if (feature.endsWith(".t")) {
+			return FeatureExtractor.TAG;
+		}
+		if (feature.endsWith(".l")) {
+			return FeatureExtractor.LABEL;
+		}
+		return FeatureExtractor.WORD;
+	}
+
+	/**
+	 * Append the child steps of path to steps, innermost first
+	 * @return The base word of path
+	 */
+	private static String compilePath(String path, List<Integer> steps, String feature) {
+		if (FeatureExtractor.BASE.matcher(path).matches()) {
+			return path;
+		}
+		Matcher matcher = FeatureExtractor.CHILD.matcher(path);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("Invalid feature: " + feature);
+		}
+		String base = FeatureExtractor.compilePath(matcher.group(3), steps, feature);
+		int count = Integer.parseInt(matcher.group(2));
+		steps.add(matcher.group(1).equals("l") ? count : -count);
+		return base;
+	}
+
+	/**
+	 * @param features At least getFeaturesCount() long, overwritten
+	 */
+	public void extract(Configuration c, int[] features) {
+		for (int slot = 0; slot < this.names.length; ++slot) {
+			features[slot] = this.extractSlot(c, slot, this.getBaseWord(c, this.slotBases[slot]));
+		}
+	}
+
+	/**
+	 * Copy the three blocks of features into separate input arrays
+	 */
+	public void split(int[] features, int[] wordInputs, int[] tagInputs, int[] labelInputs) {
+		System.arraycopy(features, 0, wordInputs, 0, this.wordFeaturesCount);
+		System.arraycopy(features, this.wordFeaturesCount, tagInputs, 0, this.tagFeaturesCount);
+		System.arraycopy(features, this.wordFeaturesCount + this.tagFeaturesCount, labelInputs, 0, this.labelFeaturesCount);
+	}
+
+	/**
+	 * @return Id of the feature in slot for the given base word
+	 */
+	int extractSlot(Configuration c, int slot, int word) {
+		for (int step = this.stepsStart[slot]; step < this.stepsStart[slot + 1] && word >= 0; ++step) {
+			int child = this.steps[step];
+			word = (child > 0) ? c.getLeftChild(word, child) : c.getRightChild(word, -child);
+		}
+		if (word < 0) {
+			return 0;
+		}
+		switch (this.slotKinds[slot]) {
+		case FeatureExtractor.WORD:
+			return c.getWordId(word);
+		case FeatureExtractor.TAG:
+			return c.getTagId(word);
+		default:
+			return c.getLabelId(word);
+		}
+	}
+
+	/**
+	 * @return Sentence index of the base word or -1 if there is none
+	 */
+	int getBaseWord(Configuration c, int base) {
+		if (FeatureExtractor.STACK == this.baseTypes[base]) {
+			return c.getStack(this.basePositions[base]);
+		}
+		return c.getBuffer(this.basePositions[base]);
+	}
+
+	int getBasesCount() {
+		return this.baseTypes.length;
+	}
+
+	int[] getBaseSlots(int base) {
+		return this.baseSlots[base];
+	}
+
+	/**
+	 * @return Whether some feature of base depends on children of the base word
+	 */
+	boolean hasChildSlots(int base) {
+		return this.baseChildSlots[base];
+	}
+
+	public int getFeaturesCount() {
+		return this.names.length;
+	}
+
+	public int getWordFeaturesCount() {
+		return this.wordFeaturesCount;
+	}
+
+	public int getTagFeaturesCount() {
+		return this.tagFeaturesCount;
+	}
+
+	public int getLabelFeaturesCount() {
+		return this.labelFeaturesCount;
+	}
+
+	/**
+	 * @return Feature names in slot order followed by "transition", the header of the training data files
+	 */
+	public String getHeader() {
+		StringBuilder header = new StringBuilder();
+		for (String name : this.names) {
+			header.append(name).append(',');
+		}
+		return header.append("transition").toString();
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Single precision copy of a trained NeuralNetwork used only for parsing.
+ * All matrices are flat row-major float arrays.
+ * Immutable after construction, so one instance can be shared by all parsing threads.
+ */
+public class FloatNeuralNetwork extends AbstractFloatNetwork {
+
+	/**
+	 * [hiddens * (inputsCount * embeddingSize)]
+	 */
+	private final float[] wordWeights;
+	private final float[] tagWeights;
+	private final float[] labelWeights;
+
+	/**
+	 * [transitions * hiddens]
+	 */
+	private final float[] softMaxWeights;
+
+	public FloatNeuralNetwork(NeuralNetwork network) {
+		super(network);
+		this.wordWeights = AbstractFloatNetwork.flatten(network.getWeights("words"));
+		this.tagWeights = AbstractFloatNetwork.flatten(network.getWeights("tags"));
+		this.labelWeights = AbstractFloatNetwork.flatten(network.getWeights("labels"));
+		this.softMaxWeights = AbstractFloatNetwork.flatten(network.getWeights("softmax"));
+	}
+
+	@Override
+	protected float addHiddenProducts(int hidden, float activation,
+			int[] wordInputs, float[] inputWordEmbeddings, int[] tagInputs, float[] inputTagEmbeddings,
+			int[] labelInputs, float[] inputLabelEmbeddings) {
+		activation += this.dotProduct(this.wordWeights, hidden*inputWordEmbeddings.length, inputWordEmbeddings, wordInputs);
+		activation += this.dotProduct(this.tagWeights, hidden*inputTagEmbeddings.length, inputTagEmbeddings, tagInputs);
+		activation += this.dotProduct(this.labelWeights, hidden*inputLabelEmbeddings.length, inputLabelEmbeddings, labelInputs);
+		return activation;
+	}
+
+	@Override
+	protected float multiplyOutput(int transition, float[] hiddenActivations) {
+		return FloatNeuralNetwork.dotProduct(this.softMaxWeights, transition*this.hiddensCount, hiddenActivations);
+	}
+
+	/**
+	 * Dot product of vector and the row of matrix starting at offset, on the blocks of non-null inputs only
+	 */
+	private float dotProduct(float[] matrix, int offset, float[] vector, int[] inputs) {
+		float result = 0;
+		for (int input = 0; input < inputs.length; ++input) {
+			if (0 == inputs[input]) {
+				continue;
+			}
+			for (int i = input*this.embeddingSize; i < (input+1)*this.embeddingSize; ++i) {
+				result += matrix[offset + i] * vector[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Dot product of vector and the row of matrix starting at offset
+	 */
+	private static float dotProduct(float[] matrix, int offset, float[] vector) {
+		float result = 0;
+		for (int i = 0; i < vector.length; ++i) {
+			result += matrix[offset + i] * vector[i];
+		}
+		return result;
+	}
+}
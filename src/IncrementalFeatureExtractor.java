@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/**
+ * Feature extraction that carries work over between the transitions of one parse.
+ * Every feature is read from a base word (a stack or buffer position) and possibly
+ * its descendants. Arc-standard only attaches children to the top two stack words
+ * and a word gets no more children once it has a head, so the subtree of a word
+ * only changes when the word itself gets a new child. The features of a base
+ * therefore only depend on which word is there and on its children count:
+ * - slots of a base are only rewritten when one of the two changed
+ * - for bases with child features the ids are memoized per sentence index together
+ *   with the children count they were built with, so a word coming back to the
+ *   same stack position is not walked again
+ *
+ * The features are the same as the ones of FeatureExtractor.extract.
+ * An instance belongs to one configuration and is not thread-safe.
+ */
+public class IncrementalFeatureExtractor {
+
+	private static final int NONE = -2;
+
+	private final FeatureExtractor extractor;
+	private final int[] features;
+
+	/**
+	 * per base: feature ids of its slots by sentence index and the children count
+	 * they were built with (-1 when not built yet), null for bases without child features
+	 */
+	private final int[][] memo;
+	private final int[][] memoChildren;
+
+	/**
+	 * per base: sentence index its slots were written for (-1 for a missing word,
+	 * NONE before the first extraction) and the children count of that word
+	 */
+	private final int[] written;
+	private final int[] writtenChildren;
+
+	public IncrementalFeatureExtractor(FeatureExtractor extractor, Configuration c) {
+		this.extractor = extractor;
+		this.features = new int[extractor.getFeaturesCount()];
+		int bases = extractor.getBasesCount();
+		this.memo = new int[bases][];
+		this.memoChildren = new int[bases][];
+		for (int base = 0; base < bases; ++base) {
+			if (extractor.hasChildSlots(base)) {
+				this.memo[base] = new int[c.getSentenceSize()*extractor.getBaseSlots(base).length];
+				this.memoChildren[base] = new int[c.getSentenceSize()];
+				Arrays.fill(this.memoChildren[base], -1);
+			}
+		}
+		this.written = new int[bases];
+		this.writtenChildren = new int[bases];
+		Arrays.fill(this.written, IncrementalFeatureExtractor.NONE);
+	}
+
+	/**
+	 * @param c The configuration this extractor was created for, after any number of transitions
+	 * @return Features of c, owned by this extractor and overwritten by the next call
+	 */
+	public int[] extract(Configuration c) {
+		for (int base = 0; base < this.written.length; ++base) {
+			int word = this.extractor.getBaseWord(c, base);
+			int children = (word < 0) ? 0 : c.getChildrenCount(word);
+			if (this.written[base] == word && this.writtenChildren[base] == children) {
+				continue;
+			}
+			int[] slots = this.extractor.getBaseSlots(base);
+			if (null == this.memo[base] || word < 0) {
+				for (int i = 0; i < slots.length; ++i) {
+					this.features[slots[i]] = this.extractor.extractSlot(c, slots[i], word);
+				}
+			} else {
+				int[] memo = this.memo[base];
+				int offset = word*slots.length;
+				if (this.memoChildren[base][word] != children) {
+					for (int i = 0; i < slots.length; ++i) {
+						memo[offset + i] = this.extractor.extractSlot(c, slots[i], word);
+					}
+					this.memoChildren[base][word] = children;
+				}
+				for (int i = 0; i < slots.length; ++i) {
+					this.features[slots[i]] = memo[offset + i];
+				}
+			}
+			this.written[base] = word;
+			this.writtenChildren[base] = children;
+		}
+		return this.features;
+	}
+}
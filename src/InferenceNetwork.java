@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.MatrixOperations;
+
+/**
+ * Read-only snapshot of the weights of a trained NeuralNetwork used for parsing.
+ * It carries none of the training state (AdaGrad and batch buffers, learning rate)
+ * and its weights are copied, so later training of the source network does not
+ * affect it.
+ *
+ * Thread safety: every field is final and never written after construction
+ * (including the optional precomputed activations), and all per-call buffers live
+ * in the NetworkWorkspace passed in by the caller. One instance can therefore be
+ * shared by any number of parsing threads as long as each thread uses its own
+ * workspace. The precomputation hit/miss counters are LongAdders and may be read
+ * while other threads are parsing.
+ */
+public class InferenceNetwork implements TransitionClassifier {
+
+	private final int wordInputsCount;
+	private final int tagInputsCount;
+	private final int labelInputsCount;
+	private final int embeddingSize;
+
+	/**
+	 * [vocabularySize][embeddingSize], row i holds the embedding of id i+1
+	 */
+	private final double[][] wordEmbeddings;
+	private final double[][] tagEmbeddings;
+	private final double[][] labelEmbeddings;
+
+	private final double[][] wordWeights;
+	private final double[][] tagWeights;
+	private final double[][] labelWeights;
+
+	private final double[] biases;
+
+	private final double[][] softMaxWeights;
+
+	/**
+	 * wordWeights x embedding products for the most frequent (word, position) pairs,
+	 * precomputedIndices is indexed by word*wordInputsCount + position, -1 for pairs that were not precomputed
+	 * null when nothing was precomputed
+	 */
+	private final int[] precomputedIndices;
+	private final double[][] precomputed;
+	private final LongAdder precomputedHits;
+	private final LongAdder precomputedMisses;
+
+	public InferenceNetwork(NeuralNetwork network) {
+		this(network, Collections.<TrainingExample>emptyList(), 0);
+	}
+
+	/**
+	 * @param network Trained network to copy the weights from
+	 * @param examples Examples to count the (word, position) pairs in
+	 * @param precomputedCount Number of most frequent pairs to precompute, 0 disables precomputation
+	 */
+	public InferenceNetwork(NeuralNetwork network, List<TrainingExample> examples, int precomputedCount) {
+		this.wordInputsCount = network.getWordInputsCount();
+		this.tagInputsCount = network.getTagInputsCount();
+		this.labelInputsCount = network.getLabelInputsCount();
+		this.embeddingSize = network.getEmbeddingSize();
+
+		//getEmbeddings already returns a transposed copy
+		this.wordEmbeddings = network.getEmbeddings("words");
+		this.tagEmbeddings = network.getEmbeddings("tags");
+		this.labelEmbeddings = network.getEmbeddings("labels");
+
+		this.wordWeights = MatrixOperations.copy(network.getWeights("words"));
+		this.tagWeights = MatrixOperations.copy(network.getWeights("tags"));
+		this.labelWeights = MatrixOperations.copy(network.getWeights("labels"));
+
+		this.biases = Arrays.copyOf(network.getBiases(), network.getBiases().length);
+
+		this.softMaxWeights = MatrixOperations.copy(network.getWeights("softmax"));
+
+		this.precomputedHits = new LongAdder();
+		this.precomputedMisses = new LongAdder();
+		if (precomputedCount > 0) {
+			List<Integer> keys = this.getMostFrequentWordPositions(examples);
+			int count = Math.min(precomputedCount, keys.size());
+			this.precomputedIndices = new int[this.getWordPositionsCount()];
+			Arrays.fill(this.precomputedIndices, -1);
+			this.precomputed = new double[count][];
+			for (int index = 0; index < count; ++index) {
+				int key = keys.get(index);
+				this.precomputedIndices[key] = index;
+				this.precomputed[index] = new double[this.biases.length];
+				this.addWordActivations(key / this.wordInputsCount, key % this.wordInputsCount, this.precomputed[index]);
+			}
+			System.out.println("Precomputed " + count + " out of " + keys.size() + " (word, position) pairs");
+		} else {
+			this.precomputedIndices = null;
+			this.precomputed = null;
+		}
+	}
+
+	public int chooseTransition(NetworkWorkspace workspace, int best) {
+		return MatrixOperations.argmax(this.computeOutputs(workspace), best,
+				workspace.getBestOutputs(), workspace.getBestTransitions());
+	}
+
+	public double[][] computeOutputs(BatchWorkspace workspace, int count) {
+		double[][] activations = workspace.getHiddenActivations();
+		for (int i = 0; i < count; ++i) {
+			this.fillEmbeddingsVector(this.wordEmbeddings, workspace.getWordInputs()[i], workspace.getWordEmbeddingsVectors()[i]);
+			this.fillEmbeddingsVector(this.tagEmbeddings, workspace.getTagInputs()[i], workspace.getTagEmbeddingsVectors()[i]);
+			this.fillEmbeddingsVector(this.labelEmbeddings, workspace.getLabelInputs()[i], workspace.getLabelEmbeddingsVectors()[i]);
+			System.arraycopy(this.biases, 0, activations[i], 0, this.biases.length);
+		}
+		//null slots are skipped as in the single configuration path
+		MatrixOperations.multiplyAddInline(this.wordWeights, workspace.getWordEmbeddingsVectors(),
+				workspace.getWordInputs(), this.embeddingSize, count, activations);
+		MatrixOperations.multiplyAddInline(this.tagWeights, workspace.getTagEmbeddingsVectors(),
+				workspace.getTagInputs(), this.embeddingSize, count, activations);
+		MatrixOperations.multiplyAddInline(this.labelWeights, workspace.getLabelEmbeddingsVectors(),
+				workspace.getLabelInputs(), this.embeddingSize, count, activations);
+		double[][] outputs = workspace.getOutputs();
+		for (int i = 0; i < count; ++i) {
+			double[] hiddenActivations = activations[i];
+			for (int hidden = 0; hidden < hiddenActivations.length; ++hidden) {
+				hiddenActivations[hidden] = hiddenActivations[hidden] * hiddenActivations[hidden] * hiddenActivations[hidden];
+			}
+			Arrays.fill(outputs[i], 0);
+		}
+		MatrixOperations.multiplyAddInline(this.softMaxWeights, activations, count, outputs);
+		return outputs;
+	}
+
+	public double[] computeOutputs(NetworkWorkspace workspace) {
+		double[] hiddenActivations = workspace.getHiddenActivations();
+		System.arraycopy(this.biases, 0, hiddenActivations, 0, hiddenActivations.length);
+		if (this.isPrecomputed()) {
+			this.addPrecomputedWordActivations(workspace.getWordInputs(), hiddenActivations);
+		} else {
+			this.fillEmbeddingsVector(this.wordEmbeddings, workspace.getWordInputs(), workspace.getWordEmbeddingsVector());
+			MatrixOperations.multiplyAddInline(this.wordWeights, workspace.getWordEmbeddingsVector(),
+					workspace.getWordInputs(), this.embeddingSize, hiddenActivations);
+		}
+		//null slots are skipped, so their blocks of the embeddings vectors are never read
+		this.fillEmbeddingsVector(this.tagEmbeddings, workspace.getTagInputs(), workspace.getTagEmbeddingsVector());
+		MatrixOperations.multiplyAddInline(this.tagWeights, workspace.getTagEmbeddingsVector(),
+				workspace.getTagInputs(), this.embeddingSize, hiddenActivations);
+		this.fillEmbeddingsVector(this.labelEmbeddings, workspace.getLabelInputs(), workspace.getLabelEmbeddingsVector());
+		MatrixOperations.multiplyAddInline(this.labelWeights, workspace.getLabelEmbeddingsVector(),
+				workspace.getLabelInputs(), this.embeddingSize, hiddenActivations);
+		for (int i = 0; i < hiddenActivations.length; ++i) {
+			hiddenActivations[i] = hiddenActivations[i] * hiddenActivations[i] * hiddenActivations[i];
+		}
+		MatrixOperations.multiply(this.softMaxWeights, hiddenActivations, workspace.getOutputs());
+		return workspace.getOutputs();
+	}
+
+	public NetworkWorkspace createWorkspace() {
+		return new NetworkWorkspace(this.wordInputsCount, this.tagInputsCount, this.labelInputsCount,
+				this.embeddingSize, this.biases.length, this.softMaxWeights.length);
+	}
+
+	public BatchWorkspace createBatchWorkspace(int batchSize) {
+		return new BatchWorkspace(batchSize, this.wordInputsCount, this.tagInputsCount, this.labelInputsCount,
+				this.embeddingSize, this.biases.length, this.softMaxWeights.length);
+	}
+
+	public boolean isPrecomputed() {
+		return null != this.precomputed;
+	}
+
+	public long getPrecomputedHits() {
+		return this.precomputedHits.sum();
+	}
+
+	public long getPrecomputedMisses() {
+		return this.precomputedMisses.sum();
+	}
+
+	public void resetPrecomputedCounters() {
+		this.precomputedHits.reset();
+		this.precomputedMisses.reset();
+	}
+
+	/**
+	 * @return Number of (word, position) keys, word ids go up to the number of word embeddings
+	 */
+	private int getWordPositionsCount() {
+		return (this.wordEmbeddings.length + 1)*this.wordInputsCount;
+	}
+
+	/**
+	 * @return (word, position) keys ordered from the most to the least frequent in examples,
+	 * null words are left out as they add nothing to the hidden layer
+	 */
+	private List<Integer> getMostFrequentWordPositions(List<TrainingExample> examples) {
+		final int[] frequencies = new int[this.getWordPositionsCount()];
+		for (TrainingExample example : examples) {
+			int[] wordInputs = example.getWordInputs();
+			for (int position = 0; position < wordInputs.length; ++position) {
+				if (0 == wordInputs[position]) {
+					continue;
+				}
+				++frequencies[wordInputs[position]*this.wordInputsCount + position];
+			}
+		}
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int key = 0; key < frequencies.length; ++key) {
+			if (frequencies[key] > 0) {
+				keys.add(key);
+			}
+		}
+		//stable, so equally frequent keys stay in key order
+		Collections.sort(keys, new Comparator<Integer>() {
+			public int compare(Integer key1, Integer key2) {
+				return frequencies[key2] - frequencies[key1];
+			}
+		});
+		return keys;
+	}
+
+	private void fillEmbeddingsVector(double[][] embeddings, int[] inputs, double[] inputEmbeddingsVector) {
+		for (int input = 0; input < inputs.length; ++input) {
+			if (0 == inputs[input]) {
+				Arrays.fill(inputEmbeddingsVector, input*this.embeddingSize, (input+1)*this.embeddingSize, 0);
+			} else {
+				System.arraycopy(embeddings[inputs[input]-1], 0, inputEmbeddingsVector, input*this.embeddingSize, this.embeddingSize);
+			}
+		}
+	}
+
+	/**
+	 * Add the contribution of a single word at a single position to the hidden layer
+	 * (the corresponding block of wordWeights times the word embedding)
+	 */
+	private void addWordActivations(int word, int position, double[] activations) {
+		if (0 == word) {
+			return;
+		}
+		int offset = position*this.embeddingSize;
+		double[] embedding = this.wordEmbeddings[word-1];
+		for (int hidden = 0; hidden < activations.length; ++hidden) {
+			double activation = 0;
+			for (int i = 0; i < this.embeddingSize; ++i) {
+				activation += this.wordWeights[hidden][offset + i] * embedding[i];
+			}
+			activations[hidden] += activation;
+		}
+	}
+
+	/**
+	 * Null words are skipped and count neither as hits nor as misses
+	 */
+	private void addPrecomputedWordActivations(int[] wordInputs, double[] activations) {
+		for (int position = 0; position < wordInputs.length; ++position) {
+			if (0 == wordInputs[position]) {
+				continue;
+			}
+			int index = this.precomputedIndices[wordInputs[position]*this.wordInputsCount + position];
+			if (index >= 0) {
+				this.precomputedHits.increment();
+				MatrixOperations.addInline(activations, this.precomputed[index]);
+			} else {
+				this.precomputedMisses.increment();
+				this.addWordActivations(wordInputs[position], position, activations);
+			}
+		}
+	}
+}
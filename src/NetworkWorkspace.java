@@ -0,0 +1,126 @@
+
+/**
+ * Preallocated buffers for scoring one configuration at a time.
+ * A workspace is reused for every transition of every sentence, so it must not
+ * be shared between threads - keep one per thread.
+ */
+public class NetworkWorkspace {
+
+	/**
+	 * feature ids filled in by the caller
+	 */
+	private int[] wordInputs;
+	private int[] tagInputs;
+	private int[] labelInputs;
+
+	/**
+	 * buffers for the double precision network
+	 */
+	private double[] wordEmbeddingsVector;
+	private double[] tagEmbeddingsVector;
+	private double[] labelEmbeddingsVector;
+	private double[] hiddenActivations;
+
+	/**
+	 * buffers for the single precision and quantized networks
+	 */
+	private float[] floatWordEmbeddingsVector;
+	private float[] floatTagEmbeddingsVector;
+	private float[] floatLabelEmbeddingsVector;
+	private float[] floatHiddenActivations;
+
+	private double[] outputs;
+
+	/**
+	 * which transitions are legal in the configuration being scored
+	 */
+	private boolean[] legalTransitions;
+
+	/**
+	 * scratch of MatrixOperations.argmax when the best-th transition is asked for
+	 */
+	private double[] bestOutputs;
+	private int[] bestTransitions;
+
+	public NetworkWorkspace(int wordInputsCount, int tagInputsCount, int labelInputsCount,
+			int embeddingSize, int hiddens, int transitionsCount) {
+		this.wordInputs = new int[wordInputsCount];
+		this.tagInputs = new int[tagInputsCount];
+		this.labelInputs = new int[labelInputsCount];
+
+		this.wordEmbeddingsVector = new double[wordInputsCount*embeddingSize];
+		this.tagEmbeddingsVector = new double[tagInputsCount*embeddingSize];
+		this.labelEmbeddingsVector = new double[labelInputsCount*embeddingSize];
+		this.hiddenActivations = new double[hiddens];
+
+		this.floatWordEmbeddingsVector = new float[wordInputsCount*embeddingSize];
+		this.floatTagEmbeddingsVector = new float[tagInputsCount*embeddingSize];
+		this.floatLabelEmbeddingsVector = new float[labelInputsCount*embeddingSize];
+		this.floatHiddenActivations = new float[hiddens];
+
+		this.outputs = new double[transitionsCount];
+		this.legalTransitions = new boolean[transitionsCount];
+		this.bestOutputs = new double[transitionsCount];
+		this.bestTransitions = new int[transitionsCount];
+	}
+
+	public int[] getWordInputs() {
+		return this.wordInputs;
+	}
+
+	public int[] getTagInputs() {
+		return this.tagInputs;
+	}
+
+	public int[] getLabelInputs() {
+		return this.labelInputs;
+	}
+
+	public double[] getWordEmbeddingsVector() {
+		return this.wordEmbeddingsVector;
+	}
+
+	public double[] getTagEmbeddingsVector() {
+		return this.tagEmbeddingsVector;
+	}
+
+	public double[] getLabelEmbeddingsVector() {
+		return this.labelEmbeddingsVector;
+	}
+
+	public double[] getHiddenActivations() {
+		return this.hiddenActivations;
+	}
+
+	public float[] getFloatWordEmbeddingsVector() {
+		return this.floatWordEmbeddingsVector;
+	}
+
+	public float[] getFloatTagEmbeddingsVector() {
+		return this.floatTagEmbeddingsVector;
+	}
+
+	public float[] getFloatLabelEmbeddingsVector() {
+		return this.floatLabelEmbeddingsVector;
+	}
+
+	public float[] getFloatHiddenActivations() {
+		return this.floatHiddenActivations;
+	}
+
+	public double[] getOutputs() {
+		return this.outputs;
+	}
+
+	public boolean[] getLegalTransitions() {
+		return this.legalTransitions;
+	}
+
+	public double[] getBestOutputs() {
+		return this.bestOutputs;
+	}
+
+	public int[] getBestTransitions() {
+		return this.bestTransitions;
+	}
+}
@@ -5,6 +5,11 @@ import java.util.List;
 
 import common.MatrixOperations;
 
+/**
+ * Training model. Besides the weights it holds the AdaGrad and batch gradient
+ * buffers, so it is not safe to share between threads - snapshot it into an
+ * InferenceNetwork for parsing.
+ */
 public class NeuralNetwork implements Serializable {
 	
 	/**
@@ -133,71 +138,73 @@ public class NeuralNetwork implements Serializable {
 	}
 	
 	public int chooseTransition(int[] wordInputs, int[] tagInputs, int[] labelInputs, int best) {
-		double[] inputWordEmbeddingsVector = this.getWordEmbeddingsVector(wordInputs);
-		double[] inputTagsEmbeddingsVector = this.getTagEmbeddingsVector(tagInputs);
-		double[] inputLabelEmbeddingsVector = this.getLabelEmbeddingsVector(labelInputs);
-		
-		double[] hiddenActivations = this.computeHiddenActivations(inputWordEmbeddingsVector,
-																   inputTagsEmbeddingsVector,
-																   inputLabelEmbeddingsVector);
+		double[] hiddenActivations = this.computeHiddenActivations(wordInputs, tagInputs, labelInputs);
 		
 		double[] outputs = this.computeOutputs(hiddenActivations);
 		
-//		return MatrixOperations.argmax(outputs);
-		
-		double[] maxes = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
-		int[] indices = {0, 0, 0};
-		for (int index = 0; index < outputs.length; ++index) {
-			if (maxes[0] < outputs[index]) {
-				maxes[2] = maxes[1];
-				maxes[1] = maxes[0];
-				maxes[0] = outputs[index];
-				indices[2] = indices[1];
-				indices[1] = indices[0];
-				indices[0] = index;
-			} else if (maxes[1] < outputs[index]) {
-				maxes[2] = maxes[1];
-				indices[2] = indices[1];
-				maxes[1] = outputs[index];
-				indices[1] = index;
-			} else if (maxes[2] < outputs[index]) {
-				maxes[2] = outputs[index];
-				indices[2] = index;
-			}
+		return MatrixOperations.argmax(outputs, best);
+	}
+	
+	public double[][] getWeights(String weights) {
+		switch (weights) {
+		case "words":
+			return this.wordWeights;
+		case "tags":
+			return this.tagWeights;
+		case "labels":
+			return this.labelWeights;
+		case "softmax":
+			return this.softMaxWeights;
 		}
-		return indices[best];
-//		return maxIndex;
+		return null;
+	}
+	
+	public double[] getBiases() {
+		return this.biases;
+	}
+	
+	public int getWordInputsCount() {
+		return this.wordInputsCount;
+	}
+	
+	public int getTagInputsCount() {
+		return this.tagInputsCount;
+	}
+	
+	public int getLabelInputsCount() {
+		return this.labelInputsCount;
+	}
+	
+	public int getEmbeddingSize() {
+		return this.embeddingSize;
 	}
 	
 	public int chooseSecondBestTransition(int[] wordInputs, int[] tagInputs, int[] labelInputs) {
-		double[] inputWordEmbeddingsVector = this.getWordEmbeddingsVector(wordInputs);
-		double[] inputTagsEmbeddingsVector = this.getTagEmbeddingsVector(tagInputs);
-		double[] inputLabelEmbeddingsVector = this.getLabelEmbeddingsVector(labelInputs);
-		
-		double[] hiddenActivations = this.computeHiddenActivations(inputWordEmbeddingsVector,
-																   inputTagsEmbeddingsVector,
-																   inputLabelEmbeddingsVector);
+		double[] hiddenActivations = this.computeHiddenActivations(wordInputs, tagInputs, labelInputs);
 		
 		double[] outputs = this.computeOutputs(hiddenActivations);
 		
 		return MatrixOperations.argmax2(outputs);
 	}
 	
-	public void trainIteration(TrainingExample[] data, int[] indices) {
+	/**
+	 * @param data Random access list, examples are read by index in shuffled order
+	 */
+	public void trainIteration(List<TrainingExample> data, int[] indices) {
 		this.resetAdaGrad();
 		this.resetBatchDerivatives();
 		MatrixOperations.shuffle(indices);
 		int examples = 0;
 		long start = System.currentTimeMillis();
-		NeuralNetwork.batchSize = data.length / 100;
+		NeuralNetwork.batchSize = data.size() / 100;
 //		System.out.println("Correct: " + this.countCorrect(data));
 		for (int i : indices) {
 			if (examples != 0 && 0 == examples % 10000) {
 				long end = System.currentTimeMillis();
-				System.out.println(examples + "/" + data.length + " examples for " + (end - start) + "ms.");
+				System.out.println(examples + "/" + data.size() + " examples for " + (end - start) + "ms.");
 			}
 			this.printNN();
-			this.updateWeights(data[i]);
+			this.updateWeights(data.get(i));
 			++examples;
 //			System.out.println("Correct: " + this.countCorrect(data));
 		}
@@ -243,58 +250,53 @@ public class NeuralNetwork implements Serializable {
 
 	private double[] getWordEmbeddingsVector(int[] wordInputs) {
 		double[] inputWordEmbeddingsVector = new double[this.wordInputsCount*this.embeddingSize];
-		for (int i = 0; i < this.embeddingSize; ++i) {
-			for (int word = 0; word < wordInputs.length; ++word) {
-				if (0 == wordInputs[word]) {
-					inputWordEmbeddingsVector[word*this.embeddingSize + i] = 0;
-				} else {
-					inputWordEmbeddingsVector[word*this.embeddingSize + i] = this.wordEmbeddings[i][wordInputs[word]-1];	
-				}
-			}
-		}
+		this.fillEmbeddingsVector(this.wordEmbeddings, wordInputs, inputWordEmbeddingsVector);
 		return inputWordEmbeddingsVector;
 	}
 	
 	private double[] getTagEmbeddingsVector(int[] tagInputs) {
 		double[] inputTagEmbeddingsVector = new double[this.tagInputsCount*this.embeddingSize];
-		for (int i = 0; i < this.embeddingSize; ++i) {
-			for (int tag = 0; tag < tagInputs.length; ++tag) {
-				if (0 == tagInputs[tag]) {
-					inputTagEmbeddingsVector[tag*this.embeddingSize + i] = 0;
-				} else {
-					inputTagEmbeddingsVector[tag*this.embeddingSize + i] = this.tagEmbeddings[i][tagInputs[tag]-1];
-				}
-			}
-		}
+		this.fillEmbeddingsVector(this.tagEmbeddings, tagInputs, inputTagEmbeddingsVector);
 		return inputTagEmbeddingsVector;
 	}
 	
 	private double[] getLabelEmbeddingsVector(int[] labelInputs) {
 		double[] inputLabelEmbeddingsVector = new double[this.labelInputsCount*this.embeddingSize];
+		this.fillEmbeddingsVector(this.labelEmbeddings, labelInputs, inputLabelEmbeddingsVector);
+		return inputLabelEmbeddingsVector;
+	}
+	
+	private void fillEmbeddingsVector(double[][] embeddings, int[] inputs, double[] inputEmbeddingsVector) {
 		for (int i = 0; i < this.embeddingSize; ++i) {
-			for (int label = 0; label < labelInputs.length; ++label) {
-				if (0 == labelInputs[label]) {
-					inputLabelEmbeddingsVector[label*this.embeddingSize + i] = 0;
+			for (int input = 0; input < inputs.length; ++input) {
+				if (0 == inputs[input]) {
+					inputEmbeddingsVector[input*this.embeddingSize + i] = 0;
 				} else {
-					inputLabelEmbeddingsVector[label*this.embeddingSize + i] = this.labelEmbeddings[i][labelInputs[label]-1];
+					inputEmbeddingsVector[input*this.embeddingSize + i] = embeddings[i][inputs[input]-1];
 				}
 			}
 		}
-		return inputLabelEmbeddingsVector;
 	}
 	
-	private double[] computeHiddenActivationsBase(double[] inputWordEmbeddings, double[] inputTagEmbeddings, double[] inputLabelEmbeddings) {
-		double[] wordActivations = MatrixOperations.multiply(this.wordWeights, inputWordEmbeddings);
-		double[] tagActivations = MatrixOperations.multiply(this.tagWeights, inputTagEmbeddings);
-		double[] labelActivations = MatrixOperations.multiply(this.labelWeights, inputLabelEmbeddings);
-		double[] activationsSum = MatrixOperations.sum(wordActivations, tagActivations);
-		activationsSum = MatrixOperations.sum(activationsSum, labelActivations);
-		activationsSum = MatrixOperations.sum(activationsSum, this.biases);
+	/**
+	 * Hidden pre-activations. Only the weight blocks of non-null inputs are multiplied,
+	 * null inputs have zero embeddings and contribute nothing.
+	 */
+	private double[] computeHiddenActivationsBase(int[] wordInputs, int[] tagInputs, int[] labelInputs,
+			double[] inputWordEmbeddings, double[] inputTagEmbeddings, double[] inputLabelEmbeddings) {
+		double[] activationsSum = Arrays.copyOf(this.biases, this.biases.length);
+		MatrixOperations.multiplyAddInline(this.wordWeights, inputWordEmbeddings, wordInputs, this.embeddingSize, activationsSum);
+		MatrixOperations.multiplyAddInline(this.tagWeights, inputTagEmbeddings, tagInputs, this.embeddingSize, activationsSum);
+		MatrixOperations.multiplyAddInline(this.labelWeights, inputLabelEmbeddings, labelInputs, this.embeddingSize, activationsSum);
 		return activationsSum;
 	}
 	
-	private double[] computeHiddenActivations(double[] inputWordEmbeddings, double[] inputTagEmbeddings, double[] inputLabelEmbeddings) {
-		double[] activationsSum = this.computeHiddenActivationsBase(inputWordEmbeddings, inputTagEmbeddings, inputLabelEmbeddings);
+	private double[] computeHiddenActivations(int[] wordInputs, int[] tagInputs, int[] labelInputs) {
+		double[] inputWordEmbeddingsVector = this.getWordEmbeddingsVector(wordInputs);
+		double[] inputTagsEmbeddingsVector = this.getTagEmbeddingsVector(tagInputs);
+		double[] inputLabelEmbeddingsVector = this.getLabelEmbeddingsVector(labelInputs);
+		double[] activationsSum = this.computeHiddenActivationsBase(wordInputs, tagInputs, labelInputs,
+				inputWordEmbeddingsVector, inputTagsEmbeddingsVector, inputLabelEmbeddingsVector);
 		return MatrixOperations.powComponentWise(activationsSum, 3);
 	}
 	
@@ -310,7 +312,10 @@ public class NeuralNetwork implements Serializable {
 		double[] inputTagsEmbeddingsVector = this.getTagEmbeddingsVector(example.getTagInputs());
 		double[] inputLabelEmbeddingsVector = this.getLabelEmbeddingsVector(example.getLabelInputs());
 		//compute hidden activations
-		double[] hiddenActivationsBase = this.computeHiddenActivationsBase(inputWordEmbeddingsVector,
+		double[] hiddenActivationsBase = this.computeHiddenActivationsBase(example.getWordInputs(),
+																		   example.getTagInputs(),
+																		   example.getLabelInputs(),
+																		   inputWordEmbeddingsVector,
 																		   inputTagsEmbeddingsVector,
 																		   inputLabelEmbeddingsVector);
 		double[] hiddenActivations = MatrixOperations.powComponentWise(hiddenActivationsBase, 3);
@@ -339,18 +344,17 @@ public class NeuralNetwork implements Serializable {
 	    MatrixOperations.addInline(this.biasesBatch, biasDerivatives);
 	    
 	    //use bias derivatives to compute the rest of the derivatives for weights layer
-	    double[][] wordWeightsDerivatives = MatrixOperations.outerProduct(biasDerivatives, inputWordEmbeddingsVector);
-	    double[][] tagsWeightsDerivatives = MatrixOperations.outerProduct(biasDerivatives, inputTagsEmbeddingsVector);
-	    double[][] labelWeightsDerivatives = MatrixOperations.outerProduct(biasDerivatives, inputLabelEmbeddingsVector);
-	    MatrixOperations.addInline(this.wordWeightsBatch, wordWeightsDerivatives);
-	    MatrixOperations.addInline(this.tagWeightsBatch, tagsWeightsDerivatives);
-	    MatrixOperations.addInline(this.labelWeightsBatch, labelWeightsDerivatives);
+	    //the derivatives of the blocks of null inputs are 0 so only the others are added
+	    MatrixOperations.addOuterProductInline(this.wordWeightsBatch, biasDerivatives, inputWordEmbeddingsVector, example.getWordInputs(), this.embeddingSize);
+	    MatrixOperations.addOuterProductInline(this.tagWeightsBatch, biasDerivatives, inputTagsEmbeddingsVector, example.getTagInputs(), this.embeddingSize);
+	    MatrixOperations.addOuterProductInline(this.labelWeightsBatch, biasDerivatives, inputLabelEmbeddingsVector, example.getLabelInputs(), this.embeddingSize);
 	    
 	    //compute embeddings derivatives
 	    double[] commonMultipleVector = MatrixOperations.multiplyComponentWise(hiddenDerivatives, hiddenActivationDerivatives);
-	    double[] wordEmbeddingsDerivatives = MatrixOperations.multiply(MatrixOperations.transpose(this.wordWeights), commonMultipleVector);
-	    double[] tagEmbeddingsDerivatives = MatrixOperations.multiply(MatrixOperations.transpose(this.tagWeights), commonMultipleVector);
-	    double[] labelEmbeddingsDerivatives = MatrixOperations.multiply(MatrixOperations.transpose(this.labelWeights), commonMultipleVector);
+	    //addEmbeddingsBatch ignores null inputs so their blocks are not computed
+	    double[] wordEmbeddingsDerivatives = MatrixOperations.multiplyTransposed(this.wordWeights, commonMultipleVector, example.getWordInputs(), this.embeddingSize);
+	    double[] tagEmbeddingsDerivatives = MatrixOperations.multiplyTransposed(this.tagWeights, commonMultipleVector, example.getTagInputs(), this.embeddingSize);
+	    double[] labelEmbeddingsDerivatives = MatrixOperations.multiplyTransposed(this.labelWeights, commonMultipleVector, example.getLabelInputs(), this.embeddingSize);
 	    this.addEmbeddingsBatch(this.wordEmbeddingsBatch, wordEmbeddingsDerivatives, example.getWordInputs());
 	    this.addEmbeddingsBatch(this.tagEmbeddingsBatch, tagEmbeddingsDerivatives, example.getTagInputs());
 	    this.addEmbeddingsBatch(this.labelEmbeddingsBatch, labelEmbeddingsDerivatives, example.getLabelInputs());
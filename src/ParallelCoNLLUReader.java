@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads a CoNLL-U file on a fork-join pool. The file is split into chunks, byte
+ * ranges that start right after a blank line so no sentence crosses two chunks,
+ * and every chunk is read by its own CoNLLUReader on a pool thread. Chunks have
+ * their own interners: ids of different chunks can not be compared, their Strings can.
+ *
+ * Results come back either in file order, with a bounded number of chunks read
+ * ahead, or in the order the chunks are done. Either way they are handed over on
+ * the calling thread, so consumers do not need to be thread-safe.
+ */
+public class ParallelCoNLLUReader {
+
+	/**
+	 * smaller files are not split further, larger chunks are split so a chunk result stays small
+	 */
+	private static final long MIN_CHUNK_SIZE = 1L << 16;
+	private static final long MAX_CHUNK_SIZE = 1L << 22;
+	private static final int SCAN_BLOCK = 1 << 14;
+
+	public interface ChunkReader<T> {
+		/**
+		 * Read the sentences of one chunk, the reader is closed afterwards but its interners stay usable.
+		 * Called on a pool thread, concurrently for different chunks.
+		 */
+		T read(CoNLLUReader reader) throws IOException;
+	}
+
+	private final Path file;
+	private final ForkJoinPool pool;
+	/**
+	 * chunk i is file[boundaries[i]..boundaries[i+1])
+	 */
+	private final long[] boundaries;
+	private final int maxPending;
+
+	public ParallelCoNLLUReader(Path file) throws IOException {
+		this(file, ForkJoinPool.commonPool());
+	}
+
+	public ParallelCoNLLUReader(Path file, ForkJoinPool pool) throws IOException {
+		this.file = file;
+		this.pool = pool;
+		this.maxPending = 2*pool.getParallelism();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long chunks = Math.max(4*pool.getParallelism(), (size + ParallelCoNLLUReader.MAX_CHUNK_SIZE - 1) / ParallelCoNLLUReader.MAX_CHUNK_SIZE);
+			chunks = Math.max(1, Math.min(chunks, size / ParallelCoNLLUReader.MIN_CHUNK_SIZE));
+			this.boundaries = ParallelCoNLLUReader.split(channel, (int) chunks);
+		}
+	}
+
+	/**
+	 * @return Boundaries of about chunksCount chunks of equal size, each moved forward to the end of the next blank line
+	 */
+	private static long[] split(FileChannel channel, int chunksCount) throws IOException {
+		long size = channel.size();
+		long[] boundaries = new long[chunksCount + 1];
+		int count = 1;
+		ByteBuffer block = ByteBuffer.allocate(ParallelCoNLLUReader.SCAN_BLOCK);
+		for (int chunk = 1; chunk < chunksCount; ++chunk) {
+			long target = Math.max(size / chunksCount * chunk, boundaries[count - 1]);
+			long boundary = ParallelCoNLLUReader.findBlankLineEnd(channel, target, block);
+			if (boundary > boundaries[count - 1] && boundary < size) {
+				boundaries[count++] = boundary;
+			}
+		}
+		boundaries[count++] = size;
+		long[] result = new long[count];
+		System.arraycopy(boundaries, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * @return Offset right after the first blank line ("\n\n" or "\n\r\n") from offset on, the file size if there is none
+	 */
+	private static long findBlankLineEnd(FileChannel channel, long offset, ByteBuffer block) throws IOException {
+		//bytes since the last '\n', -1 before the first one
+		int lineLength = -1;
+		byte last = 0;
+		while (true) {
+			block.clear();
+			int read = channel.read(block, offset);
+			if (read <= 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < read; ++i) {
+				byte b = block.get(i);
+				if ('\n' == b) {
+					if (0 == lineLength || (1 == lineLength && '\r' == last)) {
+						return offset + i + 1;
+					}
+					lineLength = 0;
+				} else if (lineLength >= 0) {
+					++lineLength;
+				}
+				last = b;
+			}
+			offset += read;
+		}
+	}
+
+	public int getChunksCount() {
+		return this.boundaries.length - 1;
+	}
+
+	/**
+	 * @return Chunk results in file order. The next chunks are read in the background,
+	 * at most twice the pool parallelism at a time. Read errors are thrown as UncheckedIOException.
+	 */
+	public <T> Iterator<T> readChunks(final ChunkReader<T> chunkReader) {
+		return new Iterator<T>() {
+			private final Deque<ForkJoinTask<T>> pending = new ArrayDeque<ForkJoinTask<T>>();
+			private int next = 0;
+
+			public boolean hasNext() {
+				this.submit();
+				return !this.pending.isEmpty();
+			}
+
+			public T next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				ForkJoinTask<T> task = this.pending.poll();
+				this.submit();
+				try {
+					return ParallelCoNLLUReader.get(task);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			private void submit() {
+				while (this.pending.size() < ParallelCoNLLUReader.this.maxPending && this.next < ParallelCoNLLUReader.this.getChunksCount()) {
+					this.pending.add(ParallelCoNLLUReader.this.pool.submit(new ChunkTask<T>(this.next++, chunkReader, null)));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Pass every chunk result to consumer on the calling thread as soon as the chunk is done,
+	 * in no particular order. At most twice the pool parallelism chunks are read at a time.
+	 */
+	public <T> void forEachChunk(ChunkReader<T> chunkReader, Consumer<T> consumer) throws IOException {
+		BlockingQueue<ForkJoinTask<T>> done = new LinkedBlockingQueue<ForkJoinTask<T>>();
+		int submitted = 0;
+		for (int completed = 0; completed < this.getChunksCount(); ++completed) {
+			while (submitted - completed < this.maxPending && submitted < this.getChunksCount()) {
+				this.pool.execute(new ChunkTask<T>(submitted++, chunkReader, done));
+			}
+			try {
+				consumer.accept(ParallelCoNLLUReader.get(done.take()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading " + this.file);
+			}
+		}
+	}
+
+	/**
+	 * @return Result of a finished or running task, with the IOException of the chunk reader unwrapped
+	 */
+	private static <T> T get(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private class ChunkTask<T> extends RecursiveTask<T> {
+		private static final long serialVersionUID = 1L;
+
+		private final int chunk;
+		private final ChunkReader<T> chunkReader;
+		/**
+		 * where the task puts itself when it is done, can be null
+		 */
+		private final BlockingQueue<ForkJoinTask<T>> done;
+
+		public ChunkTask(int chunk, ChunkReader<T> chunkReader, BlockingQueue<ForkJoinTask<T>> done) {
+			this.chunk = chunk;
+			this.chunkReader = chunkReader;
+			this.done = done;
+		}
+
+		@Override
+		protected T compute() {
+			try (CoNLLUReader reader = new CoNLLUReader(ParallelCoNLLUReader.this.file,
+					ParallelCoNLLUReader.this.boundaries[this.chunk], ParallelCoNLLUReader.this.boundaries[this.chunk + 1])) {
+				return this.chunkReader.read(reader);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				//get waits for the task to complete
+				if (null != this.done) {
+					this.done.add(this);
+				}
+			}
+		}
+	}
+}
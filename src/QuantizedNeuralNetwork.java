@@ -0,0 +1,106 @@
+/**
+ * Int8 copy of a trained NeuralNetwork used only for parsing.
+ * Every row of the weight matrices is quantized symmetrically with its own
+ * scale (row max / 127). Products are accumulated in float against the
+ * quantized row and multiplied by the row scale once at the end.
+ * Embeddings are only gathered, never multiplied, so they stay in float.
+ * Immutable after construction, so one instance can be shared by all parsing threads.
+ */
+public class QuantizedNeuralNetwork extends AbstractFloatNetwork {
+
+	private static final int maxQuantized = 127;
+
+	/**
+	 * [hiddens * (inputsCount * embeddingSize)] and one scale per hidden
+	 */
+	private final byte[] wordWeights;
+	private final byte[] tagWeights;
+	private final byte[] labelWeights;
+	private final float[] wordScales;
+	private final float[] tagScales;
+	private final float[] labelScales;
+
+	/**
+	 * [transitions * hiddens] and one scale per transition
+	 */
+	private final byte[] softMaxWeights;
+	private final float[] softMaxScales;
+
+	public QuantizedNeuralNetwork(NeuralNetwork network) {
+		super(network);
+		this.wordScales = new float[this.hiddensCount];
+		this.tagScales = new float[this.hiddensCount];
+		this.labelScales = new float[this.hiddensCount];
+		this.wordWeights = QuantizedNeuralNetwork.quantize(network.getWeights("words"), this.wordScales);
+		this.tagWeights = QuantizedNeuralNetwork.quantize(network.getWeights("tags"), this.tagScales);
+		this.labelWeights = QuantizedNeuralNetwork.quantize(network.getWeights("labels"), this.labelScales);
+
+		this.softMaxScales = new float[this.transitionsCount];
+		this.softMaxWeights = QuantizedNeuralNetwork.quantize(network.getWeights("softmax"), this.softMaxScales);
+	}
+
+	@Override
+	protected float addHiddenProducts(int hidden, float activation,
+			int[] wordInputs, float[] inputWordEmbeddings, int[] tagInputs, float[] inputTagEmbeddings,
+			int[] labelInputs, float[] inputLabelEmbeddings) {
+		activation += this.wordScales[hidden] * this.dotProduct(this.wordWeights, hidden*inputWordEmbeddings.length, inputWordEmbeddings, wordInputs);
+		activation += this.tagScales[hidden] * this.dotProduct(this.tagWeights, hidden*inputTagEmbeddings.length, inputTagEmbeddings, tagInputs);
+		activation += this.labelScales[hidden] * this.dotProduct(this.labelWeights, hidden*inputLabelEmbeddings.length, inputLabelEmbeddings, labelInputs);
+		return activation;
+	}
+
+	@Override
+	protected float multiplyOutput(int transition, float[] hiddenActivations) {
+		return this.softMaxScales[transition] * QuantizedNeuralNetwork.dotProduct(this.softMaxWeights, transition*this.hiddensCount, hiddenActivations);
+	}
+
+	/**
+	 * Dot product of vector and the quantized row of matrix starting at offset, on the blocks of non-null inputs only
+	 */
+	private float dotProduct(byte[] matrix, int offset, float[] vector, int[] inputs) {
+		float result = 0;
+		for (int input = 0; input < inputs.length; ++input) {
+			if (0 == inputs[input]) {
+				continue;
+			}
+			for (int i = input*this.embeddingSize; i < (input+1)*this.embeddingSize; ++i) {
+				result += matrix[offset + i] * vector[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Dot product of vector and the quantized row of matrix starting at offset
+	 */
+	private static float dotProduct(byte[] matrix, int offset, float[] vector) {
+		float result = 0;
+		for (int i = 0; i < vector.length; ++i) {
+			result += matrix[offset + i] * vector[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Quantize every row of matrix to [-127, 127] and store the row scales in scales
+	 */
+	private static byte[] quantize(double[][] matrix, float[] scales) {
+		int cols = matrix[0].length;
+		byte[] result = new byte[matrix.length*cols];
+		for (int row = 0; row < matrix.length; ++row) {
+			double max = 0;
+			for (int col = 0; col < cols; ++col) {
+				max = Math.max(max, Math.abs(matrix[row][col]));
+			}
+			if (0 == max) {
+				continue;
+			}
+			double scale = max / QuantizedNeuralNetwork.maxQuantized;
+			scales[row] = (float) scale;
+			for (int col = 0; col < cols; ++col) {
+				result[row*cols + col] = (byte) Math.round(matrix[row][col] / scale);
+			}
+		}
+		return result;
+	}
+}
@@ -8,18 +8,27 @@ public class Token {
 	private String POS;
 	private int head;
 	private String label;
+	/**
+	 * parser vocabulary ids of the lemma, POS tag and label (0 when unknown),
+	 * resolved once so feature extraction does no string lookups
+	 */
+	private int tagId;
+	private int labelId;
+	/**
+	 * DependencyTree id of the label
+	 */
+	private int treeLabelId;
 	
-	public Token(String[] args, int id) {
-		this.sentenceIndex = Integer.parseInt(args[0]);
-		this.id = id;
-		this.word = args[1];
-		this.lemma = args[2];
-		this.POS = args[4];
-		this.head = Integer.parseInt(args[6]);
-		this.label = args[7];
-	}
-	
-	public Token(int sentenceIndex, int id, String word, String lemma, String pos, int head, String label) {
+	/**
+	 * Tokens of sentences passed to DependencyParser.predict need the parser ids,
+	 * features are built from them and never from the strings
+	 * @param id Vocabulary id of the lemma
+	 * @param tagId Id of the POS tag
+	 * @param labelId Id of the label
+	 * @param treeLabelId DependencyTree id of the label
+	 */
+	public Token(int sentenceIndex, int id, int tagId, int labelId, int treeLabelId,
+				 String word, String lemma, String pos, int head, String label) {
 		this.sentenceIndex = sentenceIndex;
 		this.id = id;
 		this.word = word;
@@ -27,6 +36,9 @@ public class Token {
 		this.POS = pos;
 		this.head = head;
 		this.label = label;
+		this.tagId = tagId;
+		this.labelId = labelId;
+		this.treeLabelId = treeLabelId;
 	}
 	
 	public int getSentenceId() {
@@ -56,4 +68,16 @@ public class Token {
 	public String getLabel() {
 		return this.label;
 	}
+	
+	public int getTagId() {
+		return this.tagId;
+	}
+	
+	public int getLabelId() {
+		return this.labelId;
+	}
+	
+	public int getTreeLabelId() {
+		return this.treeLabelId;
+	}
 }
@@ -0,0 +1,36 @@
+
+/**
+ * Implementations are immutable once built and may be shared between parsing
+ * threads. Per-call state belongs in a NetworkWorkspace owned by one thread.
+ */
+public interface TransitionClassifier {
+	
+	/**
+	 * Pick a transition for the inputs stored in the workspace without allocating
+	 * @param best 0 for the highest scoring transition, 1 for the second and so on
+	 * @return Transition id
+	 */
+	public int chooseTransition(NetworkWorkspace workspace, int best);
+	
+	/**
+	 * Score all transitions for the first count configurations of the workspace in one forward pass
+	 * @return The outputs buffer of the workspace, one row of transition scores per configuration
+	 */
+	public double[][] computeOutputs(BatchWorkspace workspace, int count);
+	
+	/**
+	 * Score all transitions for the inputs stored in the workspace without allocating
+	 * @return The outputs buffer of the workspace
+	 */
+	public double[] computeOutputs(NetworkWorkspace workspace);
+	
+	/**
+	 * @return New workspace sized for this classifier
+	 */
+	public NetworkWorkspace createWorkspace();
+	
+	/**
+	 * @return New workspace for batches of up to batchSize configurations
+	 */
+	public BatchWorkspace createBatchWorkspace(int batchSize);
+}
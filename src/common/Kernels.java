@@ -0,0 +1,40 @@
+package common;
+
+/**
+ * Inner loops of MatrixOperations. Callers check the sizes, implementations
+ * only run over the first vector1.length elements.
+ */
+interface Kernels {
+	
+	public double dotProduct(double[] vector1, double[] vector2);
+	
+	/**
+	 * Dot product over the elements [from, to) of both vectors
+	 */
+	public double dotProduct(double[] vector1, double[] vector2, int from, int to);
+	
+	/**
+	 * vector1 += number * vector2 over the elements [from, to)
+	 */
+	public void addScaledInline(double[] vector1, double number, double[] vector2, int from, int to);
+	
+	/**
+	 * vector1 += vector2
+	 */
+	public void addInline(double[] vector1, double[] vector2);
+	
+	/**
+	 * vector1 -= vector2
+	 */
+	public void subtractInline(double[] vector1, double[] vector2);
+	
+	/**
+	 * result = vector * number
+	 */
+	public void multiply(double[] vector, double number, double[] result);
+	
+	/**
+	 * result = vector1 .* vector2
+	 */
+	public void multiplyComponentWise(double[] vector1, double[] vector2, double[] result);
+}
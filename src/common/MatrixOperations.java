@@ -1,11 +1,87 @@
 package common;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.jblas.DoubleMatrix;
 
 public class MatrixOperations {
 	
+	/**
+	 * Vector API loops when src-vector was compiled and the JVM runs with --add-modules jdk.incubator.vector,
+	 * plain loops otherwise or when started with -Dkernels=scalar
+	 */
+	private static final Kernels kernels = MatrixOperations.loadKernels();
+	
+	/**
+	 * tile of multiplyAddInline for batches, 32 x 256 doubles (64 KiB) fit in L2
+	 */
+	private static final int BLOCK_ROWS = 32;
+	private static final int BLOCK_COLUMNS = 256;
+	
+	private static Kernels loadKernels() {
+		if (!"scalar".equals(System.getProperty("kernels"))) {
+			try {
+				Kernels kernels = (Kernels) Class.forName("common.VectorKernels").getDeclaredConstructor().newInstance();
+				//touch the vector classes now so a missing module shows up here and not mid-training
+				kernels.dotProduct(new double[1], new double[1]);
+				return kernels;
+			} catch (Throwable e) {
+				//jdk.incubator.vector not present
+			}
+		}
+		return new ScalarKernels();
+	}
+	
+	public static String getKernelsName() {
+		return (MatrixOperations.kernels instanceof ScalarKernels) ? "scalar" : "vector";
+	}
+	
+	/**
+	 * Run the active kernels and the scalar ones on the same random inputs
+	 * of every length up to maxLength (so all the tail cases are covered)
+	 * @return Largest absolute difference between the two
+	 */
+	public static double compareKernels(int maxLength) {
+		Kernels scalar = new ScalarKernels();
+		Random random = new Random(0);
+		double maxDifference = 0;
+		for (int length = 0; length <= maxLength; ++length) {
+			double[] vector1 = MatrixOperations.randomInitialize(length, -1, 1);
+			double[] vector2 = MatrixOperations.randomInitialize(length, -1, 1);
+			double number = random.nextDouble();
+			maxDifference = Math.max(maxDifference, Math.abs(scalar.dotProduct(vector1, vector2) - MatrixOperations.kernels.dotProduct(vector1, vector2)));
+			double[] expected = Arrays.copyOf(vector1, length);
+			double[] actual = Arrays.copyOf(vector1, length);
+			scalar.addInline(expected, vector2);
+			MatrixOperations.kernels.addInline(actual, vector2);
+			maxDifference = Math.max(maxDifference, MatrixOperations.maxDifference(expected, actual));
+			scalar.subtractInline(expected, vector2);
+			MatrixOperations.kernels.subtractInline(actual, vector2);
+			maxDifference = Math.max(maxDifference, MatrixOperations.maxDifference(expected, actual));
+			scalar.multiply(vector1, number, expected);
+			MatrixOperations.kernels.multiply(vector1, number, actual);
+			maxDifference = Math.max(maxDifference, MatrixOperations.maxDifference(expected, actual));
+			maxDifference = Math.max(maxDifference, Math.abs(scalar.dotProduct(vector1, vector2, length / 3, length)
+															 - MatrixOperations.kernels.dotProduct(vector1, vector2, length / 3, length)));
+			scalar.addScaledInline(expected, number, vector2, length / 3, length);
+			MatrixOperations.kernels.addScaledInline(actual, number, vector2, length / 3, length);
+			maxDifference = Math.max(maxDifference, MatrixOperations.maxDifference(expected, actual));
+			scalar.multiplyComponentWise(vector1, vector2, expected);
+			MatrixOperations.kernels.multiplyComponentWise(vector1, vector2, actual);
+			maxDifference = Math.max(maxDifference, MatrixOperations.maxDifference(expected, actual));
+		}
+		return maxDifference;
+	}
+	
+	private static double maxDifference(double[] vector1, double[] vector2) {
+		double max = 0;
+		for (int i = 0; i < vector1.length; ++i) {
+			max = Math.max(max, Math.abs(vector1[i] - vector2[i]));
+		}
+		return max;
+	}
+	
 	public static int[] initializeIndices(int size) {
 		int[] indices = new int[size];
 		for (int i = 0; i < indices.length; ++i) {
@@ -36,7 +112,15 @@ public class MatrixOperations {
 		}
 		return result;
 	}
-	
+
+	public static double[][] copy(double[][] matrix) {
+		double[][] result = new double[matrix.length][];
+		for (int row = 0; row < matrix.length; ++row) {
+			result[row] = Arrays.copyOf(matrix[row], matrix[row].length);
+		}
+		return result;
+	}
+
 	public static double[] randomInitialize(int size, double lowerLimit, double upperLimit) {
 		Random random = new Random();
 		double[] result = new double[size];
@@ -65,21 +149,131 @@ public class MatrixOperations {
 		return result;
 	}
 	
+	/**
+	 * Write matrix times vector into result
+	 */
+	public static void multiply(double[][] matrix, double[] vector, double[] result) {
+		for (int i = 0; i < matrix.length; ++i) {
+			result[i] = MatrixOperations.dotProduct(matrix[i], vector);
+		}
+	}
+	
+	/**
+	 * Add matrix times vector to result
+	 */
+	public static void multiplyAddInline(double[][] matrix, double[] vector, double[] result) {
+		for (int i = 0; i < matrix.length; ++i) {
+			result[i] += MatrixOperations.dotProduct(matrix[i], vector);
+		}
+	}
+	
+	/**
+	 * Add matrix times vector to result for a vector made of blocks of blockSize
+	 * elements, one per input. Blocks of null (0) inputs are zero in the vector,
+	 * so they are skipped instead of multiplied.
+	 */
+	public static void multiplyAddInline(double[][] matrix, double[] vector, int[] inputs, int blockSize, double[] result) {
+		for (int i = 0; i < matrix.length; ++i) {
+			double sum = 0;
+			for (int input = 0; input < inputs.length; ++input) {
+				if (0 != inputs[input]) {
+					sum += MatrixOperations.kernels.dotProduct(matrix[i], vector, input*blockSize, (input+1)*blockSize);
+				}
+			}
+			result[i] += sum;
+		}
+	}
+	
+	/**
+	 * transpose(matrix) times vector, computed only on the blocks of non-null inputs
+	 * (see multiplyAddInline), the other blocks of the result are left 0
+	 */
+	public static double[] multiplyTransposed(double[][] matrix, double[] vector, int[] inputs, int blockSize) {
+		double[] result = new double[matrix[0].length];
+		for (int row = 0; row < matrix.length; ++row) {
+			for (int input = 0; input < inputs.length; ++input) {
+				if (0 != inputs[input]) {
+					MatrixOperations.kernels.addScaledInline(result, vector[row], matrix[row], input*blockSize, (input+1)*blockSize);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * matrix += outerProduct(vector1, vector2) on the blocks of non-null inputs of vector2
+	 * (see multiplyAddInline), the other blocks of the product are 0
+	 */
+	public static void addOuterProductInline(double[][] matrix, double[] vector1, double[] vector2, int[] inputs, int blockSize) {
+		for (int row = 0; row < matrix.length; ++row) {
+			for (int input = 0; input < inputs.length; ++input) {
+				if (0 != inputs[input]) {
+					MatrixOperations.kernels.addScaledInline(matrix[row], vector1[row], vector2, input*blockSize, (input+1)*blockSize);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Add matrix times vectors[i] to results[i] for the first count vectors.
+	 * Blocked: a tile of BLOCK_ROWS rows by BLOCK_COLUMNS columns of the matrix is
+	 * used by every vector before moving on, so it is read from memory once per
+	 * batch instead of once per vector.
+	 */
+	public static void multiplyAddInline(double[][] matrix, double[][] vectors, int count, double[][] results) {
+		int columns = (0 == matrix.length) ? 0 : matrix[0].length;
+		for (int column = 0; column < columns; column += MatrixOperations.BLOCK_COLUMNS) {
+			int columnEnd = Math.min(column + MatrixOperations.BLOCK_COLUMNS, columns);
+			for (int row = 0; row < matrix.length; row += MatrixOperations.BLOCK_ROWS) {
+				int rowEnd = Math.min(row + MatrixOperations.BLOCK_ROWS, matrix.length);
+				for (int i = 0; i < count; ++i) {
+					double[] vector = vectors[i];
+					double[] result = results[i];
+					for (int tileRow = row; tileRow < rowEnd; ++tileRow) {
+						result[tileRow] += MatrixOperations.kernels.dotProduct(matrix[tileRow], vector, column, columnEnd);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Batched version of the input-aware multiplyAddInline: vectors[i] is made of blocks of
+	 * blockSize elements, one per input of inputs[i], and the blocks of null inputs are skipped.
+	 * Tiles are BLOCK_ROWS rows by one input block, so a tile is only used by the vectors
+	 * whose input there is not null.
+	 */
+	public static void multiplyAddInline(double[][] matrix, double[][] vectors, int[][] inputs, int blockSize, int count, double[][] results) {
+		int inputsCount = (0 == count) ? 0 : inputs[0].length;
+		for (int input = 0; input < inputsCount; ++input) {
+			int column = input*blockSize;
+			for (int row = 0; row < matrix.length; row += MatrixOperations.BLOCK_ROWS) {
+				int rowEnd = Math.min(row + MatrixOperations.BLOCK_ROWS, matrix.length);
+				for (int i = 0; i < count; ++i) {
+					if (0 == inputs[i][input]) {
+						continue;
+					}
+					double[] vector = vectors[i];
+					double[] result = results[i];
+					for (int tileRow = row; tileRow < rowEnd; ++tileRow) {
+						result[tileRow] += MatrixOperations.kernels.dotProduct(matrix[tileRow], vector, column, column + blockSize);
+					}
+				}
+			}
+		}
+	}
+	
 	public static double[][] multiply(double[][] matrix, double number) {
 		double[][] result = new double[matrix.length][matrix[0].length];
 		for (int row = 0; row < result.length; ++row) {
-			for (int col = 0; col < result[0].length; ++col) {
-				result[row][col] = matrix[row][col] * number;
-			}
+			MatrixOperations.kernels.multiply(matrix[row], number, result[row]);
 		}
 		return result;
 	}
 	
 	public static double[] multiply(double[] vector, double number) {
 		double[] result = new double[vector.length];
-		for (int i = 0; i < result.length; ++i) {
-			result[i] = vector[i] * number;
-		}
+		MatrixOperations.kernels.multiply(vector, number, result);
 		return result;
 	}
 	
@@ -87,9 +281,7 @@ public class MatrixOperations {
 		if (vector1.length != vector2.length) {
 			throw new RuntimeException("MatrixOperations::addInline: vectors have different sizes");
 		}
-		for (int i = 0; i < vector1.length; ++i) {
-			vector1[i] += vector2[i];
-		}
+		MatrixOperations.kernels.addInline(vector1, vector2);
 	}
 	
 	public static void addInline(double[][] matrix1, double[][] matrix2) {
@@ -97,9 +289,7 @@ public class MatrixOperations {
 			throw new RuntimeException("MatrixOperations::addInline: matrices have different sizes");
 		}
 		for (int row = 0; row < matrix1.length; ++row) {
-			for (int col = 0; col < matrix1[0].length; ++col) {
-				matrix1[row][col] += matrix2[row][col];
-			}
+			MatrixOperations.kernels.addInline(matrix1[row], matrix2[row]);
 		}
 	}
 	
@@ -107,9 +297,7 @@ public class MatrixOperations {
 		if (vector1.length != vector2.length) {
 			throw new RuntimeException("MatrixOperations::subtractInline: vectors have different sizes");
 		}
-		for (int i = 0; i < vector1.length; ++i) {
-			vector1[i] -= vector2[i];
-		}
+		MatrixOperations.kernels.subtractInline(vector1, vector2);
 	}
 	
 	public static void subtractInline(double[][] matrix1, double[][] matrix2) {
@@ -117,23 +305,17 @@ public class MatrixOperations {
 			throw new RuntimeException("MatrixOperations::subtractInline: matrices have different sizes");
 		}
 		for (int row = 0; row < matrix1.length; ++row) {
-			for (int col = 0; col < matrix1[0].length; ++col) {
-				matrix1[row][col] -= matrix2[row][col];
-			}
+			MatrixOperations.kernels.subtractInline(matrix1[row], matrix2[row]);
 		}
 	}
 	
 	public static void multiplyInline(double[] vector, double number) {
-		for (int i = 0; i < vector.length; ++i) {
-			vector[i] *= number;
-		}
+		MatrixOperations.kernels.multiply(vector, number, vector);
 	}
 	
 	public static void multiplyInline(double[][] matrix, double number) {
 		for (int row = 0; row < matrix.length; ++row) {
-			for (int col = 0; col < matrix[0].length; ++col) {
-				matrix[row][col]*= number;
-			}
+			MatrixOperations.kernels.multiply(matrix[row], number, matrix[row]);
 		}
 	}
 	
@@ -141,19 +323,13 @@ public class MatrixOperations {
 		if (vector1.length != vector2.length) {
 			throw new RuntimeException("MatrixOperations::dotProduct: vectors have different sizes");
 		}
-		double result = 0;
-		for (int i = 0; i < vector1.length; ++i) {
-			result += vector1[i] * vector2[i];
-		}
-		return result;
+		return MatrixOperations.kernels.dotProduct(vector1, vector2);
 	}
 	
 	public static double[][] outerProduct(double[] vector1, double[] vector2) {
 		double[][] matrix = new double[vector1.length][vector2.length];
 		for (int row = 0; row < vector1.length; ++row) {
-			for (int col = 0; col < vector2.length; ++col) {
-				matrix[row][col] = vector1[row] * vector2[col];
-			}
+			MatrixOperations.kernels.multiply(vector2, vector1[row], matrix[row]);
 		}
 		return matrix;
 	}
@@ -163,9 +339,7 @@ public class MatrixOperations {
 			throw new RuntimeException("MatrixOperations::multiplyComponentWise: vectors have different sizes");
 		}
 		double[] result = new double[vector1.length];
-		for (int i = 0; i < vector1.length; ++i) {
-			result[i] = vector1[i] * vector2[i];
-		}
+		MatrixOperations.kernels.multiplyComponentWise(vector1, vector2, result);
 		return result;
 	}
 	
@@ -173,10 +347,8 @@ public class MatrixOperations {
 		if (vector1.length != vector2.length) {
 			throw new RuntimeException("MatrixOperations::sum: vectors have different sizes");
 		}
-		double[] result = new double[vector1.length];
-		for (int i = 0; i < result.length; ++i) {
-			result[i] = vector1[i] + vector2[i];
-		}
+		double[] result = Arrays.copyOf(vector1, vector1.length);
+		MatrixOperations.kernels.addInline(result, vector2);
 		return result;
 	}
 
@@ -263,6 +435,51 @@ public class MatrixOperations {
 		return maxIndex;
 	}
 	
+	/**
+	 * Index of the largest coordinate among the allowed ones
+	 * @return -1 if no coordinate is allowed
+	 */
+	public static int argmax(double[] vector, boolean[] allowed) {
+		double max = Double.NEGATIVE_INFINITY;
+		int maxIndex = -1;
+		for (int index = 0; index < vector.length; ++index) {
+			if (allowed[index] && (maxIndex < 0 || max < vector[index])) {
+				max = vector[index];
+				maxIndex = index;
+			}
+		}
+		return maxIndex;
+	}
+	
+	/**
+	 * Index of the best-th largest coordinate (0 is the argmax)
+	 */
+	public static int argmax(double[] vector, int best) {
+		return MatrixOperations.argmax(vector, best, new double[best + 1], new int[best + 1]);
+	}
+	
+	/**
+	 * argmax(vector, best) with caller owned scratch arrays of at least best + 1 elements
+	 */
+	public static int argmax(double[] vector, int best, double[] maxes, int[] indices) {
+		Arrays.fill(maxes, 0, best + 1, Double.NEGATIVE_INFINITY);
+		Arrays.fill(indices, 0, best + 1, 0);
+		for (int index = 0; index < vector.length; ++index) {
+			int position = best;
+			if (!(maxes[position] < vector[index])) {
+				continue;
+			}
+			while (position > 0 && maxes[position - 1] < vector[index]) {
+				maxes[position] = maxes[position - 1];
+				indices[position] = indices[position - 1];
+				--position;
+			}
+			maxes[position] = vector[index];
+			indices[position] = index;
+		}
+		return indices[best];
+	}
+	
 	public static int argmax2(double[] vector) {
 		int maxIndex = argmax(vector);
 		double max = Double.NEGATIVE_INFINITY;
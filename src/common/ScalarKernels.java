@@ -0,0 +1,53 @@
+package common;
+
+/**
+ * Plain loops, used when the Vector API is not available
+ */
+class ScalarKernels implements Kernels {
+	
+	public double dotProduct(double[] vector1, double[] vector2) {
+		double result = 0;
+		for (int i = 0; i < vector1.length; ++i) {
+			result += vector1[i] * vector2[i];
+		}
+		return result;
+	}
+	
+	public double dotProduct(double[] vector1, double[] vector2, int from, int to) {
+		double result = 0;
+		for (int i = from; i < to; ++i) {
+			result += vector1[i] * vector2[i];
+		}
+		return result;
+	}
+	
+	public void addScaledInline(double[] vector1, double number, double[] vector2, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			vector1[i] += number * vector2[i];
+		}
+	}
+	
+	public void addInline(double[] vector1, double[] vector2) {
+		for (int i = 0; i < vector1.length; ++i) {
+			vector1[i] += vector2[i];
+		}
+	}
+	
+	public void subtractInline(double[] vector1, double[] vector2) {
+		for (int i = 0; i < vector1.length; ++i) {
+			vector1[i] -= vector2[i];
+		}
+	}
+	
+	public void multiply(double[] vector, double number, double[] result) {
+		for (int i = 0; i < vector.length; ++i) {
+			result[i] = vector[i] * number;
+		}
+	}
+	
+	public void multiplyComponentWise(double[] vector1, double[] vector2, double[] result) {
+		for (int i = 0; i < vector1.length; ++i) {
+			result[i] = vector1[i] * vector2[i];
+		}
+	}
+}